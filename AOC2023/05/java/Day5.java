@@ -1,58 +1,79 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.LongStream;
 
 public class Day5 {
 	public static void main(String[] args) {
-		String pathToData = Paths.get("AOC2023", "05", "DATA.txt").toAbsolutePath().normalize().toString();
+		Path pathToData = Paths.get("AOC2023", "05", "DATA.txt").toAbsolutePath().normalize();
 
-		List<String> lines = new ArrayList<>();
+		String target = "location";
+
+		Plan task1;
+		Plan task2;
 
 		try {
-			lines = Files.readAllLines(Paths.get(pathToData));
+			task1 = Plan.parseTask1(pathToData);
+			task2 = Plan.parseTask2(pathToData);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 
-		String target = "location";
-
-		Plan task1 = Plan.parseTask1(lines);
 		task1.convertUntil(target);
 		System.out.println("Task 1: " + task1.getResource().getLowestNumber());
 
-		Plan task2 = Plan.parseTask2(lines);
-		task2.convertUntil(target);
+		task2.convertUntil(target, ForkJoinPool.commonPool());
 		System.out.println("Task 2: " + task2.getResource().getLowestNumber());
 	}
 
 	static class Plan {
 		private Resource resource;
-		private Map<String, Converter> converters;
+		private Map<String, List<Converter>> converters;
+		private LruCache<ConversionKey, CompiledConverter> compiledConverters;
+		private LruCache<ConversionKey, MinLocationIndex> indexes;
+
+		static final int DEFAULT_CACHE_SIZE = 64;
 
 		private static final Pattern RESOURCE_PATTERN = Pattern
 				.compile("(?<identifier>\\w+)s:\\s(?<everythingElse>.*)");
 
 		public Plan(Resource resource, List<Converter> converters) {
+			this(resource, converters, DEFAULT_CACHE_SIZE);
+		}
+
+		public Plan(Resource resource, List<Converter> converters, int cacheSize) {
 			this.resource = resource;
 			this.converters = new HashMap<>();
+			this.compiledConverters = new LruCache<>(cacheSize);
+			this.indexes = new LruCache<>(cacheSize);
 
+			// a category may feed several others, so the converters form a graph
 			for (Converter converter : converters) {
-				this.converters.put(converter.getSource(), converter);
+				this.converters.computeIfAbsent(converter.getSource(), k -> new ArrayList<>()).add(converter);
 			}
 		}
 
@@ -76,6 +97,14 @@ public class Day5 {
 			return new Plan(resource, converters);
 		}
 
+		public static Plan parseTask1(Path path) throws IOException {
+			return AlmanacParser.parse(path, false);
+		}
+
+		public static Plan parseTask2(Path path) throws IOException {
+			return AlmanacParser.parse(path, true);
+		}
+
 		private static record ResourceList(String type, List<Long> numbers) {
 		}
 
@@ -116,13 +145,12 @@ public class Day5 {
 				throw new RuntimeException("Uneven number of numbers");
 			}
 
-			List<Range> ranges = LongStream.range(0, numbers.size() / 2)
-					.mapToObj(i -> {
-						long start = numbers.get((int) (i * 2));
-						long range = numbers.get((int) (i * 2 + 1));
-						return new Range(start, start + range - 1);
-					})
-					.toList();
+			RangeBuffer ranges = new RangeBuffer(numbers.size() / 2);
+			for (int i = 0; i < numbers.size(); i += 2) {
+				long start = numbers.get(i);
+				long range = numbers.get(i + 1);
+				ranges.add(start, start + range - 1);
+			}
 
 			return new Resource(resourceList.type(), ranges);
 		}
@@ -139,7 +167,9 @@ public class Day5 {
 		}
 
 		public Collection<Converter> getConverters() {
-			return converters.values();
+			return converters.values().stream()
+					.flatMap(List::stream)
+					.toList();
 		}
 
 		public Resource getResource() {
@@ -147,14 +177,258 @@ public class Day5 {
 		}
 
 		public void convertUntil(String target) {
-			while (!resource.getType().equals(target)) {
-				Converter converter = converters.get(resource.getType());
-				try {
-					converter.convert(resource);
-				} catch (Exception e) {
-					throw new RuntimeException("Failed to convert resource", e);
+			if (resource.getType().equals(target)) {
+				return;
+			}
+			try {
+				compile(resource.getType(), target).convert(resource);
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to convert resource", e);
+			}
+		}
+
+		public void convertUntil(String target, ForkJoinPool pool) {
+			if (resource.getType().equals(target)) {
+				return;
+			}
+			try {
+				compile(resource.getType(), target).convertParallel(resource, pool);
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to convert resource", e);
+			}
+		}
+
+		public MinLocationIndex getIndex(String source, String target) {
+			// answers any number of seed queries without touching the plan's resource
+			return indexes.computeIfAbsent(new ConversionKey(source, target),
+					key -> new MinLocationIndex(compile(source, target)));
+		}
+
+		public CompiledConverter compile(String source, String target) {
+			// the table only depends on the converters, so it can be reused for every seed
+			// set that gets converted along the same path
+			return compiledConverters.computeIfAbsent(new ConversionKey(source, target), key -> {
+				CompiledConverter compiled = CompiledConverter.identity(source);
+				for (Converter converter : findPath(source, target)) {
+					compiled = compiled.andThen(CompiledConverter.of(converter));
+				}
+				return compiled;
+			});
+		}
+
+		private List<Converter> findPath(String source, String target) {
+			// breadth first, so the path with the fewest conversions wins
+			Map<String, Converter> reachedBy = new HashMap<>();
+			Deque<String> queue = new ArrayDeque<>();
+			reachedBy.put(source, null);
+			queue.add(source);
+			while (!queue.isEmpty() && !reachedBy.containsKey(target)) {
+				String type = queue.poll();
+				for (Converter converter : converters.getOrDefault(type, List.of())) {
+					if (!reachedBy.containsKey(converter.getDestination())) {
+						reachedBy.put(converter.getDestination(), converter);
+						queue.add(converter.getDestination());
+					}
+				}
+			}
+			if (!reachedBy.containsKey(target)) {
+				throw new RuntimeException("No conversion path from " + source + " to " + target);
+			}
+
+			List<Converter> path = new ArrayList<>();
+			for (Converter converter = reachedBy.get(target); converter != null; converter = reachedBy
+					.get(converter.getSource())) {
+				path.add(converter);
+			}
+			Collections.reverse(path);
+			return path;
+		}
+	}
+
+	static record ConversionKey(String source, String target) {
+	}
+
+	static class LruCache<K, V> {
+		// bounded, least recently used entries are dropped first; values are computed
+		// outside the lock so a slow compilation doesn't block other lookups
+		private final int maxSize;
+		private final LinkedHashMap<K, V> entries;
+
+		public LruCache(int maxSize) {
+			if (maxSize < 1) {
+				throw new IllegalArgumentException("maxSize must be greater than 0");
+			}
+			this.maxSize = maxSize;
+			this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+					return size() > LruCache.this.maxSize;
+				}
+			};
+		}
+
+		public V computeIfAbsent(K key, Function<K, V> compute) {
+			synchronized (entries) {
+				V value = entries.get(key);
+				if (value != null) {
+					return value;
+				}
+			}
+			V value = compute.apply(key);
+			synchronized (entries) {
+				V existing = entries.putIfAbsent(key, value);
+				return existing != null ? existing : value;
+			}
+		}
+
+		public int size() {
+			synchronized (entries) {
+				return entries.size();
+			}
+		}
+	}
+
+	static class AlmanacParser {
+		// reads the almanac once, straight from the channel, without building lines or
+		// running regular expressions; only the category names become strings
+		private static final int BUFFER_SIZE = 1 << 16;
+		private static final int EOF = -1;
+
+		private final ReadableByteChannel channel;
+		private final ByteBuffer buffer;
+		private long position;
+
+		private AlmanacParser(ReadableByteChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			this.buffer.flip();
+		}
+
+		public static Plan parse(Path path, boolean seedRanges) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				return parse(channel, seedRanges);
+			}
+		}
+
+		public static Plan parse(ReadableByteChannel channel, boolean seedRanges) throws IOException {
+			return new AlmanacParser(channel).parsePlan(seedRanges);
+		}
+
+		private Plan parsePlan(boolean seedRanges) throws IOException {
+			String header = readWord();
+			expect(':');
+			if (!header.endsWith("s")) {
+				throw new IllegalArgumentException("Expected a resource list but got " + header);
+			}
+			String type = header.substring(0, header.length() - 1);
+
+			RangeBuffer seeds = new RangeBuffer(16);
+			while (hasNumber()) {
+				long start = readNumber();
+				if (!seedRanges) {
+					seeds.add(start, start);
+					continue;
+				}
+				if (!hasNumber()) {
+					throw new RuntimeException("Uneven number of numbers");
+				}
+				seeds.add(start, start + readNumber() - 1);
+			}
+
+			List<Converter> converters = new ArrayList<>();
+			while (skipWhitespace() != EOF) {
+				converters.add(parseConverter());
+			}
+
+			return new Plan(new Resource(type, seeds), converters);
+		}
+
+		private Converter parseConverter() throws IOException {
+			String name = readWord();
+			int separator = name.indexOf("-to-");
+			if (separator < 0) {
+				throw new IllegalArgumentException("Expected <source>-to-<destination> but got " + name);
+			}
+			if (!readWord().equals("map")) {
+				throw new IllegalArgumentException("Expected map header at byte " + position);
+			}
+			expect(':');
+
+			List<ConverterRange> ranges = new ArrayList<>();
+			while (hasNumber()) {
+				long destinationStart = readNumber();
+				long sourceStart = readNumber();
+				long range = readNumber();
+				ranges.add(new ConverterRange(sourceStart, sourceStart + range - 1, destinationStart - sourceStart));
+			}
+
+			return new Converter(name.substring(0, separator), name.substring(separator + 4), ranges);
+		}
+
+		private boolean hasNumber() throws IOException {
+			int b = skipWhitespace();
+			return b >= '0' && b <= '9';
+		}
+
+		private long readNumber() throws IOException {
+			if (!hasNumber()) {
+				throw new IllegalArgumentException("Expected a number at byte " + position);
+			}
+			long value = 0;
+			int b;
+			while ((b = peek()) >= '0' && b <= '9') {
+				value = Math.addExact(Math.multiplyExact(value, 10), b - '0');
+				next();
+			}
+			return value;
+		}
+
+		private String readWord() throws IOException {
+			skipWhitespace();
+			StringBuilder sb = new StringBuilder();
+			int b;
+			// the same characters as \w plus '-', like the regex this replaced
+			while ((b = peek()) == '-' || b == '_' || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+					|| (b >= '0' && b <= '9')) {
+				sb.append((char) b);
+				next();
+			}
+			if (sb.length() == 0) {
+				throw new IllegalArgumentException("Expected a word at byte " + position);
+			}
+			return sb.toString();
+		}
+
+		private void expect(char c) throws IOException {
+			if (peek() != c) {
+				throw new IllegalArgumentException("Expected '" + c + "' at byte " + position);
+			}
+			next();
+		}
+
+		private int skipWhitespace() throws IOException {
+			int b;
+			while ((b = peek()) == ' ' || b == '\n' || b == '\r' || b == '\t') {
+				next();
+			}
+			return b;
+		}
+
+		private int peek() throws IOException {
+			while (!buffer.hasRemaining()) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				buffer.flip();
+				if (read < 0) {
+					return EOF;
 				}
 			}
+			return buffer.get(buffer.position()) & 0xFF;
+		}
+
+		private void next() {
+			buffer.position(buffer.position() + 1);
+			position++;
 		}
 	}
 
@@ -162,16 +436,33 @@ public class Day5 {
 		String type;
 		List<Range> ranges;
 
+		// primitive mode: ranges live in buffer, scratch is the reusable output of the
+		// next conversion, both get swapped afterwards
+		RangeBuffer buffer;
+		RangeBuffer scratch;
+
 		public Resource(String type, List<Range> ranges) {
 			this.type = type;
 			this.ranges = ranges;
 		}
 
+		public Resource(String type, RangeBuffer buffer) {
+			this.type = type;
+			this.buffer = buffer;
+			this.scratch = new RangeBuffer(buffer.size());
+		}
+
 		public String getType() {
 			return type;
 		}
 
 		public long getLowestNumber() {
+			if (isBuffered()) {
+				if (buffer.size() == 0) {
+					throw new RuntimeException("No ranges");
+				}
+				return buffer.getLowestStart();
+			}
 			return ranges.stream()
 					.mapToLong(Range::getStart)
 					.min()
@@ -182,29 +473,198 @@ public class Day5 {
 			this.type = type;
 		}
 
+		public boolean isBuffered() {
+			return buffer != null;
+		}
+
+		public void useBuffer() {
+			if (isBuffered()) {
+				return;
+			}
+			buffer = RangeBuffer.of(ranges);
+			scratch = new RangeBuffer(buffer.size());
+			ranges = null;
+		}
+
+		public RangeBuffer getBuffer() {
+			return buffer;
+		}
+
+		public RangeBuffer getScratch() {
+			return scratch;
+		}
+
+		public void swapBuffers() {
+			RangeBuffer tmp = buffer;
+			buffer = scratch;
+			scratch = tmp;
+		}
+
 		public List<Range> getRanges() {
+			if (isBuffered()) {
+				return buffer.toRanges();
+			}
 			return ranges;
 		}
 
 		public void setRanges(List<Range> ranges) {
 			this.ranges = ranges;
+			this.buffer = null;
+			this.scratch = null;
 		}
 
 		@Override
 		public String toString() {
-			return ranges.stream()
+			return getRanges().stream()
 					.map(Range::toString)
 					.reduce((a, b) -> a + "\n" + b)
 					.orElse("");
 		}
 	}
 
-	static class Converter {
+	static class RangeBuffer {
+		// inclusive ranges stored as parallel arrays, so converting them does not need
+		// a single object per range
+		private long[] starts;
+		private long[] ends;
+		private int size;
+
+		public RangeBuffer(int capacity) {
+			starts = new long[Math.max(capacity, 4)];
+			ends = new long[starts.length];
+		}
+
+		public static RangeBuffer of(List<Range> ranges) {
+			RangeBuffer buffer = new RangeBuffer(ranges.size());
+			for (Range range : ranges) {
+				buffer.add(range.getStart(), range.getEnd());
+			}
+			return buffer;
+		}
+
+		public void add(long start, long end) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			size++;
+		}
+
+		public void addMerging(long start, long end) {
+			// only valid while ranges are appended in order of their start
+			if (size > 0 && start <= ends[size - 1]) {
+				ends[size - 1] = Math.max(ends[size - 1], end);
+				return;
+			}
+			add(start, end);
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getStart(int index) {
+			return starts[index];
+		}
+
+		public long getEnd(int index) {
+			return ends[index];
+		}
+
+		public long getLowestStart() {
+			long lowest = Long.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				lowest = Math.min(lowest, starts[i]);
+			}
+			return lowest;
+		}
+
+		public void sortAndMerge() {
+			// heap sort works in place on both arrays at once
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				siftDown(i, size);
+			}
+			for (int end = size - 1; end > 0; end--) {
+				swap(0, end);
+				siftDown(0, end);
+			}
+
+			// merge all overlapping ranges
+			int merged = 0;
+			for (int i = 1; i < size; i++) {
+				if (starts[i] <= ends[merged]) {
+					ends[merged] = Math.max(ends[merged], ends[i]);
+				} else {
+					merged++;
+					starts[merged] = starts[i];
+					ends[merged] = ends[i];
+				}
+			}
+			size = size == 0 ? 0 : merged + 1;
+		}
+
+		private void siftDown(int root, int length) {
+			while (true) {
+				int child = root * 2 + 1;
+				if (child >= length) {
+					return;
+				}
+				if (child + 1 < length && isLess(child, child + 1)) {
+					child++;
+				}
+				if (!isLess(root, child)) {
+					return;
+				}
+				swap(root, child);
+				root = child;
+			}
+		}
+
+		private boolean isLess(int a, int b) {
+			return starts[a] < starts[b] || (starts[a] == starts[b] && ends[a] < ends[b]);
+		}
+
+		private void swap(int a, int b) {
+			long start = starts[a];
+			long end = ends[a];
+			starts[a] = starts[b];
+			ends[a] = ends[b];
+			starts[b] = start;
+			ends[b] = end;
+		}
+
+		public List<Range> toRanges() {
+			List<Range> ranges = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				ranges.add(new Range(starts[i], ends[i]));
+			}
+			return ranges;
+		}
+
+		@Override
+		public String toString() {
+			return toRanges().toString();
+		}
+	}
+
+	static class Converter implements RangeMapper {
 		String source;
 		String destination;
 
 		TreeMap<Long, ConverterRange> ranges;
 
+		// the same ranges as primitive arrays sorted by source start, used by the
+		// RangeBuffer path
+		long[] sourceStarts;
+		long[] sourceEnds;
+		long[] offsets;
+
 		private static final Pattern FROM_TO_PATTERN = Pattern
 				.compile("(?<source>\\w+)-to-(?<destination>\\w+) map:\n(?<numbers>.*)", Pattern.DOTALL);
 
@@ -241,6 +701,18 @@ public class Day5 {
 			for (ConverterRange range : ranges) {
 				this.ranges.put(range.getSourceStart(), range);
 			}
+
+			int count = this.ranges.size();
+			sourceStarts = new long[count];
+			sourceEnds = new long[count];
+			offsets = new long[count];
+			int i = 0;
+			for (ConverterRange range : this.ranges.values()) {
+				sourceStarts[i] = range.getSourceStart();
+				sourceEnds[i] = range.getSourceEnd();
+				offsets[i] = range.offset;
+				i++;
+			}
 		}
 
 		public long convert(long sourceNumber) {
@@ -252,6 +724,13 @@ public class Day5 {
 		}
 
 		public void convert(Resource resource) {
+			if (resource.isBuffered()) {
+				convert(resource.getBuffer(), resource.getScratch());
+				resource.swapBuffers();
+				resource.setType(destination);
+				return;
+			}
+
 			List<Range> convertedRanges = new ArrayList<>();
 			for (Range range : resource.getRanges()) {
 				// computer Overlap in the form of a list of ConverterRanges with each converter
@@ -327,6 +806,48 @@ public class Day5 {
 			resource.setType(destination);
 		}
 
+		public void convert(RangeBuffer input, RangeBuffer output) {
+			output.clear();
+			for (int i = 0; i < input.size(); i++) {
+				convertRange(input.getStart(i), input.getEnd(i), output);
+			}
+			output.sortAndMerge();
+		}
+
+		public void convertParallel(Resource resource, ForkJoinPool pool) {
+			resource.useBuffer();
+			ParallelConversion.convert(this, resource.getBuffer(), resource.getScratch(), pool);
+			resource.swapBuffers();
+			resource.setType(destination);
+		}
+
+		@Override
+		public void convertRange(long start, long end, RangeBuffer output) {
+			// same as the list based version: overlaps get their offset, gaps are kept as
+			// they are
+			int index = Arrays.binarySearch(sourceStarts, start);
+			if (index < 0) {
+				index = Math.max(-index - 2, 0);
+			}
+			long cursor = start;
+			for (; index < sourceStarts.length && sourceStarts[index] <= end; index++) {
+				long overlapStart = Math.max(cursor, sourceStarts[index]);
+				long overlapEnd = Math.min(end, sourceEnds[index]);
+				if (overlapStart > overlapEnd) {
+					continue;
+				}
+				if (overlapStart > cursor) {
+					output.add(cursor, overlapStart - 1);
+				}
+				output.add(overlapStart + offsets[index], overlapEnd + offsets[index]);
+				if (overlapEnd == end) {
+					return;
+				}
+				cursor = overlapEnd + 1;
+			}
+			output.add(cursor, end);
+		}
+
 		public String getDestination() {
 			return destination;
 		}
@@ -340,6 +861,417 @@ public class Day5 {
 		}
 	}
 
+	static class MinLocationIndex {
+		// built once from a compiled table: for every segment the lowest target value
+		// it can produce is its start plus its offset, a sparse table over those values
+		// answers "lowest target in segments i..j" in constant time
+		private final long[] starts;
+		private final long[] offsets;
+		private final long[][] minima;
+
+		public MinLocationIndex(CompiledConverter compiled) {
+			this.starts = compiled.starts;
+			this.offsets = compiled.offsets;
+
+			int n = starts.length;
+			int levels = 32 - Integer.numberOfLeadingZeros(n);
+			minima = new long[levels][];
+			minima[0] = new long[n];
+			for (int i = 0; i < n; i++) {
+				minima[0][i] = starts[i] + offsets[i];
+			}
+			for (int level = 1; level < levels; level++) {
+				int width = 1 << level;
+				long[] previous = minima[level - 1];
+				long[] current = new long[n - width + 1];
+				for (int i = 0; i < current.length; i++) {
+					current[i] = Math.min(previous[i], previous[i + width / 2]);
+				}
+				minima[level] = current;
+			}
+		}
+
+		public long getLowest(long start, long end) {
+			int first = getSegmentIndex(start);
+			int last = getSegmentIndex(end);
+			long lowest = start + offsets[first];
+			if (last > first) {
+				// every segment after the first one is covered from its own start onwards
+				lowest = Math.min(lowest, getLowestInSegments(first + 1, last));
+			}
+			return lowest;
+		}
+
+		public long getLowest(Collection<Range> ranges) {
+			if (ranges.isEmpty()) {
+				throw new RuntimeException("No ranges");
+			}
+			long lowest = Long.MAX_VALUE;
+			for (Range range : ranges) {
+				lowest = Math.min(lowest, getLowest(range.getStart(), range.getEnd()));
+			}
+			return lowest;
+		}
+
+		public long getLowest(RangeBuffer ranges) {
+			if (ranges.size() == 0) {
+				throw new RuntimeException("No ranges");
+			}
+			long lowest = Long.MAX_VALUE;
+			for (int i = 0; i < ranges.size(); i++) {
+				lowest = Math.min(lowest, getLowest(ranges.getStart(i), ranges.getEnd(i)));
+			}
+			return lowest;
+		}
+
+		private long getLowestInSegments(int from, int to) {
+			int level = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+			return Math.min(minima[level][from], minima[level][to - (1 << level) + 1]);
+		}
+
+		private int getSegmentIndex(long value) {
+			int index = Arrays.binarySearch(starts, value);
+			return index >= 0 ? index : -index - 2;
+		}
+	}
+
+	interface RangeMapper {
+		// appends the destination ranges of [start, end] to output, unsorted
+		void convertRange(long start, long end, RangeBuffer output);
+	}
+
+	static class ParallelConversion {
+		// below this many ranges per chunk the forking costs more than it saves
+		static final int CHUNK_SIZE = 1 << 14;
+
+		public static void convert(RangeMapper mapper, RangeBuffer input, RangeBuffer output, ForkJoinPool pool) {
+			int chunkCount = (input.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			if (chunkCount <= 1) {
+				output.clear();
+				for (int i = 0; i < input.size(); i++) {
+					mapper.convertRange(input.getStart(i), input.getEnd(i), output);
+				}
+				output.sortAndMerge();
+				return;
+			}
+
+			// every chunk is converted, sorted and merged on its own ...
+			RangeBuffer[] chunks = new RangeBuffer[chunkCount];
+			pool.invoke(new ChunkTask(mapper, input, chunks, 0, chunkCount));
+
+			// ... and the sorted chunks are then combined in a single k-way merge
+			mergeSorted(chunks, output);
+		}
+
+		static void mergeSorted(RangeBuffer[] parts, RangeBuffer output) {
+			output.clear();
+			int[] cursors = new int[parts.length];
+			int[] heap = new int[parts.length];
+			int heapSize = 0;
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i].size() > 0) {
+					heap[heapSize++] = i;
+				}
+			}
+			for (int i = heapSize / 2 - 1; i >= 0; i--) {
+				siftDown(heap, heapSize, i, parts, cursors);
+			}
+
+			while (heapSize > 0) {
+				int part = heap[0];
+				output.addMerging(parts[part].getStart(cursors[part]), parts[part].getEnd(cursors[part]));
+				cursors[part]++;
+				if (cursors[part] == parts[part].size()) {
+					heap[0] = heap[--heapSize];
+				}
+				siftDown(heap, heapSize, 0, parts, cursors);
+			}
+		}
+
+		private static void siftDown(int[] heap, int heapSize, int root, RangeBuffer[] parts, int[] cursors) {
+			while (true) {
+				int child = root * 2 + 1;
+				if (child >= heapSize) {
+					return;
+				}
+				if (child + 1 < heapSize && head(heap[child + 1], parts, cursors) < head(heap[child], parts, cursors)) {
+					child++;
+				}
+				if (head(heap[root], parts, cursors) <= head(heap[child], parts, cursors)) {
+					return;
+				}
+				int tmp = heap[root];
+				heap[root] = heap[child];
+				heap[child] = tmp;
+				root = child;
+			}
+		}
+
+		private static long head(int part, RangeBuffer[] parts, int[] cursors) {
+			return parts[part].getStart(cursors[part]);
+		}
+
+		private static class ChunkTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final RangeMapper mapper;
+			private final RangeBuffer input;
+			private final RangeBuffer[] chunks;
+			private final int from;
+			private final int to;
+
+			ChunkTask(RangeMapper mapper, RangeBuffer input, RangeBuffer[] chunks, int from, int to) {
+				this.mapper = mapper;
+				this.input = input;
+				this.chunks = chunks;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from > 1) {
+					int middle = (from + to) >>> 1;
+					invokeAll(new ChunkTask(mapper, input, chunks, from, middle),
+							new ChunkTask(mapper, input, chunks, middle, to));
+					return;
+				}
+				int start = from * CHUNK_SIZE;
+				int end = Math.min(start + CHUNK_SIZE, input.size());
+				RangeBuffer chunk = new RangeBuffer(end - start);
+				for (int i = start; i < end; i++) {
+					mapper.convertRange(input.getStart(i), input.getEnd(i), chunk);
+				}
+				chunk.sortAndMerge();
+				chunks[from] = chunk;
+			}
+		}
+	}
+
+	static class CompiledConverter implements RangeMapper {
+		// the whole number line is split into segments: segment i covers
+		// [starts[i], starts[i + 1] - 1] (the last one goes up to Long.MAX_VALUE) and
+		// every number in it is shifted by offsets[i]
+		private final String source;
+		private final String destination;
+		private final long[] starts;
+		private final long[] offsets;
+		private final int stepCount;
+
+		private CompiledConverter(String source, String destination, long[] starts, long[] offsets, int stepCount) {
+			this.source = source;
+			this.destination = destination;
+			this.starts = starts;
+			this.offsets = offsets;
+			this.stepCount = stepCount;
+		}
+
+		public static CompiledConverter identity(String type) {
+			return new CompiledConverter(type, type, new long[] { Long.MIN_VALUE }, new long[] { 0 }, 0);
+		}
+
+		public static CompiledConverter of(Converter converter) {
+			SegmentBuilder builder = new SegmentBuilder(converter.getRanges().size() * 2 + 1);
+			long cursor = Long.MIN_VALUE;
+			boolean reachedEnd = false;
+			for (ConverterRange range : converter.getRanges()) {
+				// overlapping converter ranges are ambiguous, the first one wins
+				long start = Math.max(range.getSourceStart(), cursor);
+				if (start > range.getSourceEnd()) {
+					continue;
+				}
+				if (start > cursor) {
+					builder.add(cursor, 0);
+				}
+				builder.add(start, range.offset);
+				if (range.getSourceEnd() == Long.MAX_VALUE) {
+					reachedEnd = true;
+					break;
+				}
+				cursor = range.getSourceEnd() + 1;
+			}
+			if (!reachedEnd) {
+				builder.add(cursor, 0);
+			}
+			return builder.build(converter.getSource(), converter.getDestination(), 1);
+		}
+
+		public CompiledConverter andThen(CompiledConverter next) {
+			if (!destination.equals(next.source)) {
+				throw new IllegalArgumentException("Cannot chain " + destination + " into " + next.source);
+			}
+			SegmentBuilder builder = new SegmentBuilder(starts.length + next.starts.length);
+			for (int i = 0; i < starts.length; i++) {
+				long offset = offsets[i];
+				long imageStart = starts[i] + offset;
+				long imageEnd = getEnd(i) + offset;
+
+				// split the image of this segment along the breakpoints of the next table
+				int j = next.getSegmentIndex(imageStart);
+				while (true) {
+					long pieceStart = Math.max(imageStart, next.starts[j]);
+					builder.add(pieceStart - offset, offset + next.offsets[j]);
+					if (next.getEnd(j) >= imageEnd) {
+						break;
+					}
+					j++;
+				}
+			}
+			return builder.build(source, next.destination, stepCount + next.stepCount);
+		}
+
+		public long convert(long sourceNumber) {
+			int index = getSegmentIndex(sourceNumber);
+			return sourceNumber + offsets[index];
+		}
+
+		public void convert(Resource resource) {
+			if (!resource.getType().equals(source)) {
+				throw new IllegalArgumentException("Expected " + source + " but got " + resource.getType());
+			}
+			if (resource.isBuffered()) {
+				convert(resource.getBuffer(), resource.getScratch());
+				resource.swapBuffers();
+				resource.setType(destination);
+				return;
+			}
+			List<Range> destinationRanges = new ArrayList<>();
+			for (Range range : resource.getRanges()) {
+				// every range is split and offset exactly once, no matter how many
+				// converters were folded into this table
+				int i = getSegmentIndex(range.getStart());
+				while (true) {
+					long pieceStart = Math.max(range.getStart(), starts[i]);
+					long pieceEnd = Math.min(range.getEnd(), getEnd(i));
+					destinationRanges.add(new Range(pieceStart + offsets[i], pieceEnd + offsets[i]));
+					if (pieceEnd == range.getEnd()) {
+						break;
+					}
+					i++;
+				}
+			}
+
+			destinationRanges.sort(Comparator.comparingLong(Range::getStart));
+
+			List<Range> mergedRanges = new ArrayList<>();
+			Range current = destinationRanges.isEmpty() ? null : destinationRanges.get(0);
+			for (int i = 1; i < destinationRanges.size(); i++) {
+				Range next = destinationRanges.get(i);
+				if (current.isOverlapping(next)) {
+					current = new Range(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+				} else {
+					mergedRanges.add(current);
+					current = next;
+				}
+			}
+			if (current != null) {
+				mergedRanges.add(current);
+			}
+
+			resource.setRanges(mergedRanges);
+			resource.setType(destination);
+		}
+
+		public void convert(RangeBuffer input, RangeBuffer output) {
+			output.clear();
+			for (int i = 0; i < input.size(); i++) {
+				convertRange(input.getStart(i), input.getEnd(i), output);
+			}
+			output.sortAndMerge();
+		}
+
+		public void convertParallel(Resource resource, ForkJoinPool pool) {
+			if (!resource.getType().equals(source)) {
+				throw new IllegalArgumentException("Expected " + source + " but got " + resource.getType());
+			}
+			resource.useBuffer();
+			ParallelConversion.convert(this, resource.getBuffer(), resource.getScratch(), pool);
+			resource.swapBuffers();
+			resource.setType(destination);
+		}
+
+		@Override
+		public void convertRange(long start, long end, RangeBuffer output) {
+			int i = getSegmentIndex(start);
+			while (true) {
+				long pieceStart = Math.max(start, starts[i]);
+				long pieceEnd = Math.min(end, getEnd(i));
+				output.add(pieceStart + offsets[i], pieceEnd + offsets[i]);
+				if (pieceEnd == end) {
+					return;
+				}
+				i++;
+			}
+		}
+
+		private int getSegmentIndex(long value) {
+			// index of the last segment starting at or before value
+			int index = Arrays.binarySearch(starts, value);
+			return index >= 0 ? index : -index - 2;
+		}
+
+		private long getEnd(int index) {
+			return index + 1 < starts.length ? starts[index + 1] - 1 : Long.MAX_VALUE;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public String getDestination() {
+			return destination;
+		}
+
+		public int getStepCount() {
+			return stepCount;
+		}
+
+		public int getSegmentCount() {
+			return starts.length;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(source).append("-to-").append(destination).append(":\n");
+			for (int i = 0; i < starts.length; i++) {
+				sb.append("[").append(starts[i]).append(", ").append(getEnd(i)).append("] ")
+						.append(offsets[i] >= 0 ? "+" : "").append(offsets[i]).append("\n");
+			}
+			return sb.toString();
+		}
+
+		private static class SegmentBuilder {
+			private long[] starts;
+			private long[] offsets;
+			private int size;
+
+			SegmentBuilder(int capacity) {
+				starts = new long[Math.max(capacity, 1)];
+				offsets = new long[starts.length];
+			}
+
+			void add(long start, long offset) {
+				// neighbouring segments with the same offset collapse into one
+				if (size > 0 && offsets[size - 1] == offset) {
+					return;
+				}
+				if (size == starts.length) {
+					starts = Arrays.copyOf(starts, size * 2);
+					offsets = Arrays.copyOf(offsets, size * 2);
+				}
+				starts[size] = start;
+				offsets[size] = offset;
+				size++;
+			}
+
+			CompiledConverter build(String source, String destination, int stepCount) {
+				return new CompiledConverter(source, destination, Arrays.copyOf(starts, size),
+						Arrays.copyOf(offsets, size), stepCount);
+			}
+		}
+	}
+
 	static class Range {
 		private long start;
 		private long end;
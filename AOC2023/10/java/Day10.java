@@ -1,9 +1,16 @@
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.EnumSet;
@@ -16,7 +23,9 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.Stack;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Day10 {
 	public static void main(String[] args) {
@@ -38,23 +47,52 @@ public class Day10 {
 
 		pipeNetwork.deleteNonLoops();
 
-		System.out.println(pipeNetwork.getXYString());
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		try {
+			pipeNetwork.render(out);
+			out.write('\n');
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 
 		Set<List<Node>> loops = pipeNetwork.getSimpleLoops();
 		List<Node> longestLoop = loops.stream().max((l1, l2) -> Integer.compare(l1.size(), l2.size())).get();
 
+		// the per cell map is only needed for rendering, the count comes straight from the
+		// loop
 		PointInLoop pointInLoop = new PointInLoop(longestLoop);
-		Map<Position, Integer> points = pointInLoop.getPoints();
-		int inside = (int) points.values().stream().filter(i -> i == 1).count();
+		long inside = PointInLoop.countEnclosed(longestLoop);
+
+		try {
+			pointInLoop.render(out);
+			out.write('\n');
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 
-		System.out.println(pointInLoop);
+		GridGraph gridGraph = GridGraph.parse(lines);
+		gridGraph.removeOneWayEdges();
+		gridGraph.removeNodesWithEdgeCountBelow(2);
+		int longestLoopLength = gridGraph.findSimpleLoops().stream().mapToInt(loop -> loop.length).max().orElse(0);
 
-		System.out.println("Task 1: " + longestLoop.size() / 2);
+		System.out.println("Task 1: " + longestLoopLength / 2);
 
 		System.out.println("Task 2: " + inside);
 
 	}
 
+	static void checkViewport(int fromRow, int fromCol, int rows, int cols) {
+		// windows past the end are cut off by the renderers, anything else is a caller bug
+		if (fromRow < 0 || fromCol < 0) {
+			throw new IllegalArgumentException("Viewport must not start at a negative row or column: " + fromRow + "," + fromCol);
+		}
+		if (rows < 1 || cols < 1) {
+			throw new IllegalArgumentException("Viewport must be at least 1x1: " + rows + "x" + cols);
+		}
+	}
+
 	static record Position(int row, int col) {
 		public Position subtract(Position other) {
 			return new Position(row - other.row(), col - other.col());
@@ -66,33 +104,41 @@ public class Day10 {
 	}
 
 	static class PointInLoop {
-		private Map<Position, Integer> points;
+		static final byte OUTSIDE = 0;
+		static final byte INSIDE = 1;
+		static final byte LOOP = 2;
+		static final byte LOOP_INVERTING = 3; // loop cell that flips a diagonal ray, reported as LOOP
+
+		// one byte per cell at row * width + col, every diagonal only writes its own
+		// cells so they can all be marched at the same time
+		private byte[] cells;
 		private List<Node> loop;
-		private Map<Position, Node> positionToNode;
 		int maxRow;
 		int maxCol;
+		int width;
 
 		public PointInLoop(List<Node> loop) {
+			this(loop, ForkJoinPool.commonPool());
+		}
+
+		public PointInLoop(List<Node> loop, ForkJoinPool pool) {
 			this.loop = loop;
-			this.points = new HashMap<>();
-			this.positionToNode = new HashMap<>();
+			maxRow = loop.stream().mapToInt(Node::row).max().orElse(0);
+			maxCol = loop.stream().mapToInt(Node::col).max().orElse(0);
+			width = maxCol + 1;
+
+			cells = new byte[(maxRow + 1) * width];
 			for (int i = 0; i < loop.size(); i++) {
 				Node node = loop.get(i);
-				Position position = new Position(node.row(), node.col());
-				positionToNode.put(position, node);
-				points.put(position, 2);
+				cells[node.row() * width + node.col()] = isInverting(i) ? LOOP_INVERTING : LOOP;
 			}
-			maxRow = positionToNode.keySet().stream().mapToInt(Position::row).max().orElse(0); // more readable but
-																								// less efficient
-			maxCol = positionToNode.keySet().stream().mapToInt(Position::col).max().orElse(0);
 
-			startRayMarcher();
+			startRayMarcher(pool);
 		}
 
-		private void startRayMarcher() {
-			for (int i = -maxRow + 1; i < maxCol; i++) {
-				rayMarch(i);
-			}
+		private void startRayMarcher(ForkJoinPool pool) {
+			// a parallel stream started from inside the pool runs on that pool
+			pool.submit(() -> IntStream.range(-maxRow + 1, maxCol).parallel().forEach(this::rayMarch)).join();
 		}
 
 		private void rayMarch(int xStart) {
@@ -109,11 +155,11 @@ public class Day10 {
 			boolean inside = false;
 
 			while (true) {
-				Position position = new Position(y, x);
-				if (positionToNode.containsKey(position)) {
-					inside ^= isInverting(positionToNode.get(position));
+				int index = y * width + x;
+				if (cells[index] >= LOOP) {
+					inside ^= cells[index] == LOOP_INVERTING;
 				} else {
-					points.put(position, inside ? 1 : 0);
+					cells[index] = inside ? INSIDE : OUTSIDE;
 				}
 				if (y == maxRow || x == maxCol) {
 					break;
@@ -123,9 +169,10 @@ public class Day10 {
 			}
 		}
 
-		private boolean isInverting(Node node) {
-			Node prevNode = loop.get((loop.indexOf(node) - 1 + loop.size()) % loop.size());
-			Node nextNode = loop.get((loop.indexOf(node) + 1) % loop.size());
+		private boolean isInverting(int loopIndex) {
+			Node node = loop.get(loopIndex);
+			Node prevNode = loop.get((loopIndex - 1 + loop.size()) % loop.size());
+			Node nextNode = loop.get((loopIndex + 1) % loop.size());
 			int count = 0; // if it's 0 or 2 it's a corner, where the ray doesn't pass through the area, it
 							// just touches it
 			if (prevNode.row() > node.row()) {
@@ -146,25 +193,95 @@ public class Day10 {
 			return false;
 		}
 
+		public byte getCell(int row, int col) {
+			byte cell = cells[row * width + col];
+			return cell == LOOP_INVERTING ? LOOP : cell;
+		}
+
+		public long countInside() {
+			long count = 0;
+			for (byte cell : cells) {
+				if (cell == INSIDE) {
+					count++;
+				}
+			}
+			return count;
+		}
+
 		public Map<Position, Integer> getPoints() {
+			// only built on request, the two corners no diagonal reaches are left out like
+			// before
+			Map<Position, Integer> points = new HashMap<>();
+			for (int row = 0; row <= maxRow; row++) {
+				for (int col = 0; col <= maxCol; col++) {
+					int diagonal = col - row;
+					if (cells[row * width + col] >= LOOP || (diagonal > -maxRow && diagonal < maxCol)) {
+						points.put(new Position(row, col), (int) getCell(row, col));
+					}
+				}
+			}
 			return points;
 		}
 
+		public static long countEnclosed(List<Node> loop) {
+			// shoelace gives twice the area of the polygon through the cell centers, Pick's
+			// theorem turns that into the number of cells strictly inside it:
+			// inside = area - boundary / 2 + 1
+			long doubleArea = 0;
+			for (int i = 0; i < loop.size(); i++) {
+				Node node = loop.get(i);
+				Node next = loop.get((i + 1) % loop.size());
+				doubleArea += (long) node.col() * next.row() - (long) next.col() * node.row();
+			}
+			return (Math.abs(doubleArea) - loop.size() + 2) / 2;
+		}
+
+		public static long countEnclosed(int[] loop, int width) {
+			// same as above for loops of row * width + col indices (see GridGraph)
+			long doubleArea = 0;
+			for (int i = 0; i < loop.length; i++) {
+				int index = loop[i];
+				int next = loop[(i + 1) % loop.length];
+				doubleArea += (long) (index % width) * (next / width) - (long) (next % width) * (index / width);
+			}
+			return (Math.abs(doubleArea) - loop.length + 2) / 2;
+		}
+
+		private static final char[] CELL_CHARS = { ' ', '█', '░', '░' };
+
+		public void render(Writer out) throws IOException {
+			render(out, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}
+
+		public void render(OutputStream out) throws IOException {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			render(writer);
+			writer.flush();
+		}
+
+		public void render(Writer out, int fromRow, int fromCol, int rows, int cols) throws IOException {
+			checkViewport(fromRow, fromCol, rows, cols);
+			int toRow = (int) Math.min((long) fromRow + rows - 1, maxRow);
+			int toCol = (int) Math.min((long) fromCol + cols - 1, maxCol);
+			char[] buffer = new char[Math.max(toCol - fromCol + 1, 0)];
+			for (int row = fromRow; row <= toRow; row++) {
+				for (int col = fromCol; col <= toCol; col++) {
+					buffer[col - fromCol] = CELL_CHARS[cells[row * width + col]];
+				}
+				out.write(buffer);
+				out.write('\n');
+			}
+		}
+
 		@Override
 		public String toString() {
-			StringBuilder sb = new StringBuilder();
-			for (int row = 0; row <= maxRow; row++) {
-				for (int col = 0; col <= maxCol; col++) {
-					sb.append(switch (points.getOrDefault(new Position(row, col), 0)) {
-						case 0 -> " ";
-						case 1 -> "█";
-						case 2 -> "░";
-						default -> throw new RuntimeException("Invalid point value");
-					});
-				}
-				sb.append('\n');
+			StringWriter writer = new StringWriter();
+			try {
+				render(writer);
+			} catch (IOException e) {
+				throw new RuntimeException(e); // can't happen for a StringWriter
 			}
-			return sb.toString();
+			return writer.toString();
 		}
 	}
 
@@ -173,6 +290,10 @@ public class Day10 {
 
 		private Node startNode;
 
+		private byte[] cellMasks; // built on the first render, dropped whenever the graph changes
+		private int maskRows;
+		private int maskCols;
+
 		public PipeNetwork(Graph graph, Node startNode) {
 			this.graph = graph;
 			this.startNode = startNode;
@@ -186,22 +307,24 @@ public class Day10 {
 				String line = lines.get(row);
 				for (int col = 0; col < line.length(); col++) {
 					char value = line.charAt(col);
-					PipeSegment pipeSegment = PipeSegment.fromChar(value);
-					Node node = new Node(new Position(row, col));
-					if (pipeSegment == PipeSegment.EMPTY) {
+					int mask = PipeSegment.maskFromChar(value);
+					if (mask == 0) {
 						continue;
 					}
-					if (pipeSegment == PipeSegment.START) {
+					Node node = new Node(new Position(row, col));
+					if (PipeSegment.fromMask(mask) == PipeSegment.START) {
 						if (startNode != null) {
 							throw new IllegalArgumentException("Multiple start nodes");
 						}
 						startNode = node;
 					}
-					List<Node> connectingNodes = getConnectingNodes(node, pipeSegment.getDirections());
-					if (connectingNodes.size() == 0) {
-						continue;
+					for (Direction direction : Direction.VALUES) {
+						int neighborRow = row + direction.getRowOffset();
+						int neighborCol = col + direction.getColOffset();
+						if ((mask & direction.getBit()) != 0 && neighborRow >= 0 && neighborCol >= 0) {
+							graph.addOneWayEdge(node, new Node(new Position(neighborRow, neighborCol)));
+						}
 					}
-					connectingNodes.forEach(node2 -> graph.addOneWayEdge(node, node2));
 				}
 			}
 
@@ -227,7 +350,7 @@ public class Day10 {
 					row.add(' ');
 				}
 				row.set(node.col(),
-						PipeSegment.fromDirections(node.getDirections(graph)).getChar());
+						PipeSegment.fromMask(node.getDirectionMask(graph)).getChar());
 			}
 
 			if (startNode != null) {
@@ -241,22 +364,78 @@ public class Day10 {
 		}
 
 		public String getXYString() {
-			List<List<Character>> xyChars = getXYChars();
+			StringWriter writer = new StringWriter();
+			try {
+				render(writer);
+			} catch (IOException e) {
+				throw new RuntimeException(e); // can't happen for a StringWriter
+			}
+			return writer.toString();
+		}
+
+		public void render(Writer out) throws IOException {
+			render(out, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}
 
-			StringBuilder sb = new StringBuilder();
-			for (List<Character> row : xyChars) {
-				for (Character c : row) {
-					sb.append(c);
+		public void render(OutputStream out) throws IOException {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			render(writer);
+			writer.flush();
+		}
+
+		public void render(Writer out, int fromRow, int fromCol, int rows, int cols) throws IOException {
+			checkViewport(fromRow, fromCol, rows, cols);
+			// renders the window row by row into one reused buffer, like getXYChars every
+			// row ends at its last pipe
+			if (cellMasks == null) {
+				buildCellMasks();
+			}
+			int toRow = (int) Math.min((long) fromRow + rows - 1, maskRows - 1);
+			int toCol = (int) Math.min((long) fromCol + cols - 1, maskCols - 1);
+
+			char[] buffer = new char[Math.max(toCol - fromCol + 1, 0)];
+			for (int row = fromRow; row <= toRow; row++) {
+				int length = 0;
+				for (int col = fromCol; col <= toCol; col++) {
+					char c = PipeSegment.fromMask(cellMasks[row * maskCols + col]).getChar();
+					buffer[col - fromCol] = c;
+					if (c != ' ') {
+						length = col - fromCol + 1;
+					}
 				}
-				sb.append('\n');
+				out.write(buffer, 0, length);
+				out.write('\n');
 			}
+		}
 
-			return sb.toString();
+		private void buildCellMasks() {
+			// the bounding box of every node and the start, as a grid of direction masks;
+			// the start gets all four bits, which maps back to START
+			int maxRow = -1;
+			int maxCol = -1;
+			for (Node node : graph.adjList.keySet()) {
+				maxRow = Math.max(maxRow, node.row());
+				maxCol = Math.max(maxCol, node.col());
+			}
+			if (startNode != null) {
+				maxRow = Math.max(maxRow, startNode.row());
+				maxCol = Math.max(maxCol, startNode.col());
+			}
+			maskRows = maxRow + 1;
+			maskCols = maxCol + 1;
+			cellMasks = new byte[maskRows * maskCols];
+			for (Node node : graph.adjList.keySet()) {
+				cellMasks[node.row() * maskCols + node.col()] = (byte) node.getDirectionMask(graph);
+			}
+			if (startNode != null) {
+				cellMasks[startNode.row() * maskCols + startNode.col()] = (byte) PipeSegment.START.getMask();
+			}
 		}
 
 		public void deleteNonLoops() {
 			graph.removeOneWayEdges();
-			graph.removeNodesWithEdgeCountBelow(2);
+			graph.peelNodesWithEdgeCountBelow(2);
+			cellMasks = null;
 		}
 
 		public Set<List<Node>> getSimpleLoops() {
@@ -267,6 +446,9 @@ public class Day10 {
 	static enum Direction {
 		LEFT(-1, 0), RIGHT(1, 0), TOP(0, -1), BOTTOM(0, 1);
 
+		// values() clones its array on every call, so the hot loops share this one
+		static final Direction[] VALUES = values();
+
 		private Position offset;
 
 		Direction(int xOffset, int yOffset) {
@@ -282,9 +464,33 @@ public class Day10 {
 			throw new IllegalArgumentException("Invalid offset");
 		}
 
+		public static int getBitFromOffset(int rowOffset, int colOffset) {
+			if (Math.abs(rowOffset) + Math.abs(colOffset) != 1) {
+				throw new IllegalArgumentException("Invalid offset");
+			}
+			// LEFT/RIGHT are ordinals 0/1 and TOP/BOTTOM 2/3, the positive offset being the odd one
+			return 1 << ((rowOffset != 0 ? 2 : 0) + (rowOffset + colOffset > 0 ? 1 : 0));
+		}
+
 		public Position applyOffset(Position position) {
 			return position.add(offset);
 		}
+
+		public int getBit() {
+			return 1 << ordinal();
+		}
+
+		public Direction getOpposite() {
+			return VALUES[ordinal() ^ 1]; // LEFT <-> RIGHT, TOP <-> BOTTOM
+		}
+
+		public int getRowOffset() {
+			return offset.row();
+		}
+
+		public int getColOffset() {
+			return offset.col();
+		}
 	}
 
 	static enum PipeSegment {
@@ -309,34 +515,57 @@ public class Day10 {
 		private char value;
 		private char character;
 		private EnumSet<Direction> directions;
+		private int mask;
 
 		PipeSegment(char value, EnumSet<Direction> directions, char charToPrint) {
 			this.value = value;
 			this.directions = directions;
 			this.character = charToPrint;
+			for (Direction direction : directions) {
+				mask |= direction.getBit();
+			}
 		}
 
-		public static PipeSegment fromChar(char value) { // wanted to use a precomputed map but it turns out, it's
-															// actually slower for the size of the input, any larger and
-															// the compute time of the rest of the algorithm would
-															// completely dwarf the performance gain I would get
-			for (PipeSegment pipeSegment : PipeSegment.values()) {
-				if (pipeSegment.value == value) {
-					return pipeSegment;
+		// char -> direction mask (-1 for anything that isn't a pipe) and mask -> segment;
+		// when two segments share a char or a mask the first one wins, just like the
+		// linear scan over values() this replaces
+		private static final byte[] CHAR_TO_MASK = new byte[256];
+		private static final PipeSegment[] MASK_TO_SEGMENT = new PipeSegment[16];
+
+		static {
+			Arrays.fill(CHAR_TO_MASK, (byte) -1);
+			for (PipeSegment pipeSegment : values()) {
+				if (CHAR_TO_MASK[pipeSegment.value] == -1) {
+					CHAR_TO_MASK[pipeSegment.value] = (byte) pipeSegment.mask;
+				}
+				if (MASK_TO_SEGMENT[pipeSegment.mask] == null) {
+					MASK_TO_SEGMENT[pipeSegment.mask] = pipeSegment;
 				}
 			}
-
-			throw new IllegalArgumentException("Invalid pipe segment: " + value);
 		}
 
-		public static PipeSegment fromDirections(EnumSet<Direction> directions) { // same here
-			for (PipeSegment pipeSegment : PipeSegment.values()) {
-				if (pipeSegment.directions.equals(directions)) {
-					return pipeSegment;
-				}
+		public static int maskFromChar(char value) {
+			int mask = value < CHAR_TO_MASK.length ? CHAR_TO_MASK[value] : -1;
+			if (mask == -1) {
+				throw new IllegalArgumentException("Invalid pipe segment: " + value);
 			}
+			return mask;
+		}
+
+		public static PipeSegment fromChar(char value) {
+			return MASK_TO_SEGMENT[maskFromChar(value)];
+		}
 
-			throw new IllegalArgumentException("Invalid pipe segment: " + directions);
+		public static PipeSegment fromMask(int mask) {
+			return MASK_TO_SEGMENT[mask];
+		}
+
+		public static PipeSegment fromDirections(EnumSet<Direction> directions) {
+			int mask = 0;
+			for (Direction direction : directions) {
+				mask |= direction.getBit();
+			}
+			return fromMask(mask);
 		}
 
 		public char getChar() {
@@ -346,6 +575,10 @@ public class Day10 {
 		public EnumSet<Direction> getDirections() {
 			return directions;
 		}
+
+		public int getMask() {
+			return mask;
+		}
 	}
 
 	static class Graph {
@@ -415,38 +648,292 @@ public class Day10 {
 			}
 		}
 
+		public void peelNodesWithEdgeCountBelow(int minEdgeCount) {
+			// same result as removeNodesWithEdgeCountBelow for graphs with only two way edges
+			// (see removeOneWayEdges), but every node is queued at most once and removing it
+			// only touches its own neighbors, so this is O(V + E)
+			Deque<Node> queue = new ArrayDeque<>();
+			for (Map.Entry<Node, List<Node>> entry : adjList.entrySet()) {
+				if (entry.getValue().size() < minEdgeCount) {
+					queue.add(entry.getKey());
+				}
+			}
+			while (!queue.isEmpty()) {
+				Node vertex = queue.poll();
+				List<Node> adjVertices = adjList.remove(vertex);
+				for (Node adjVertex : adjVertices) {
+					List<Node> adjAdjVertices = adjList.get(adjVertex);
+					if (adjAdjVertices == null) {
+						continue;
+					}
+					adjAdjVertices.remove(vertex);
+					// a degree only drops, so it crosses the limit exactly once
+					if (adjAdjVertices.size() == minEdgeCount - 1) {
+						queue.add(adjVertex);
+					}
+				}
+			}
+		}
+
 		public Set<List<Node>> findSimpleLoops() {
-			List<Node> nodesLeft = new ArrayList<>(adjList.keySet());
+			IndexedLoops indexedLoops = findSimpleLoopIndices();
 			Set<List<Node>> loops = new HashSet<>();
-			while (nodesLeft.size() > 0) {
-				Node startNode = nodesLeft.get(0);
-				List<Node> loop = findLoop(startNode);
-				loops.add(loop);
-				nodesLeft.removeAll(loop);
+			for (int[] loop : indexedLoops.loops()) {
+				List<Node> nodes = new ArrayList<>(loop.length);
+				for (int index : loop) {
+					nodes.add(indexedLoops.nodes()[index]);
+				}
+				loops.add(nodes);
 			}
 			return loops;
 		}
 
-		private List<Node> findLoop(Node startNode) {
-			List<Node> visited = new ArrayList<>();
-			visited.add(startNode);
-			while (true) {
-				List<Node> adjVertices = adjList.get(startNode);
+		public IndexedLoops findSimpleLoopIndices() {
+			// number the nodes once, after that the walk only touches int arrays and a
+			// bitset, so every loop is traced in time linear in its length
+			Node[] nodes = adjList.keySet().toArray(new Node[0]);
+			Map<Node, Integer> indices = new HashMap<>(nodes.length * 2);
+			for (int i = 0; i < nodes.length; i++) {
+				indices.put(nodes[i], i);
+			}
+			int[] neighbors = new int[nodes.length * 2];
+			for (int i = 0; i < nodes.length; i++) {
+				List<Node> adjVertices = adjList.get(nodes[i]);
 				if (adjVertices.size() != 2) {
 					throw new RuntimeException("Not a simple loop");
 				}
-				Node nextNode = adjVertices.get(0);
-				if (visited.contains(nextNode)) {
-					nextNode = adjVertices.get(1);
-					if (visited.contains(nextNode)) {
-						return visited;
+				Integer first = indices.get(adjVertices.get(0));
+				Integer second = indices.get(adjVertices.get(1));
+				if (first == null || second == null) {
+					throw new RuntimeException("Not a simple loop");
+				}
+				neighbors[i * 2] = first;
+				neighbors[i * 2 + 1] = second;
+			}
+
+			List<int[]> loops = new ArrayList<>();
+			BitSet visited = new BitSet(nodes.length);
+			int[] loop = new int[16];
+			for (int start = visited.nextClearBit(0); start < nodes.length; start = visited.nextClearBit(start + 1)) {
+				int length = 0;
+				int previous = -1;
+				int current = start;
+				do {
+					if (length == loop.length) {
+						loop = Arrays.copyOf(loop, length * 2);
+					}
+					loop[length++] = current;
+					visited.set(current);
+					int next = neighbors[current * 2];
+					if (next == previous) {
+						next = neighbors[current * 2 + 1];
+					}
+					// one-way edges could lead the walk into a loop it didn't start on,
+					// where it would circle forever (same guard as GridGraph.findSimpleLoops)
+					if ((neighbors[next * 2] != current && neighbors[next * 2 + 1] != current)
+							|| (visited.get(next) && next != start)) {
+						throw new RuntimeException("Not a simple loop");
+					}
+					previous = current;
+					current = next;
+				} while (current != start);
+				loops.add(Arrays.copyOf(loop, length));
+			}
+			return new IndexedLoops(nodes, loops);
+		}
+	}
+
+	static record IndexedLoops(Node[] nodes, List<int[]> loops) {
+	}
+
+	static class GridGraph {
+		// same graph as Graph, but without any objects per cell: cell row/col lives at
+		// index row * width + col and its edges are a 4 bit mask of Direction bits
+		private final int width;
+		private final int height;
+		private final byte[] masks;
+		private final int startIndex;
+
+		private GridGraph(int width, int height, byte[] masks, int startIndex) {
+			this.width = width;
+			this.height = height;
+			this.masks = masks;
+			this.startIndex = startIndex;
+		}
+
+		public static GridGraph parse(List<String> lines) {
+			int height = lines.size();
+			int width = lines.stream().mapToInt(String::length).max().orElse(0);
+			byte[] masks = new byte[width * height];
+			int startIndex = -1;
+
+			for (int row = 0; row < height; row++) {
+				String line = lines.get(row);
+				for (int col = 0; col < line.length(); col++) {
+					char value = line.charAt(col);
+					int mask = PipeSegment.maskFromChar(value);
+					if (PipeSegment.fromMask(mask) == PipeSegment.START) {
+						if (startIndex != -1) {
+							throw new IllegalArgumentException("Multiple start nodes");
+						}
+						startIndex = row * width + col;
+					}
+					// edges leaving the grid can never be two way, so they are dropped right away
+					if (row == 0) {
+						mask &= ~Direction.TOP.getBit();
+					}
+					if (row == height - 1) {
+						mask &= ~Direction.BOTTOM.getBit();
+					}
+					if (col == 0) {
+						mask &= ~Direction.LEFT.getBit();
+					}
+					if (col == width - 1) {
+						mask &= ~Direction.RIGHT.getBit();
+					}
+					masks[row * width + col] = (byte) mask;
+				}
+			}
+
+			return new GridGraph(width, height, masks, startIndex);
+		}
+
+		public void removeOneWayEdges() {
+			for (int index = 0; index < masks.length; index++) {
+				int mask = masks[index];
+				for (Direction direction : Direction.VALUES) {
+					if ((mask & direction.getBit()) != 0
+							&& (masks[getNeighbor(index, direction)] & direction.getOpposite().getBit()) == 0) {
+						mask &= ~direction.getBit();
 					}
 				}
-				visited.add(nextNode);
-				startNode = nextNode;
+				masks[index] = (byte) mask;
 			}
 		}
 
+		public void removeNodesWithEdgeCountBelow(int minEdgeCount) {
+			// peel like a k-core: a degree only ever drops, so every cell is queued exactly
+			// once, when it first falls below minEdgeCount
+			int[] queue = new int[masks.length];
+			int head = 0;
+			int tail = 0;
+			for (int index = 0; index < masks.length; index++) {
+				int degree = Integer.bitCount(masks[index]);
+				if (degree > 0 && degree < minEdgeCount) {
+					queue[tail++] = index;
+				}
+			}
+			while (head < tail) {
+				int index = queue[head++];
+				int mask = masks[index];
+				masks[index] = 0;
+				for (Direction direction : Direction.VALUES) {
+					if ((mask & direction.getBit()) == 0) {
+						continue;
+					}
+					int neighbor = getNeighbor(index, direction);
+					int neighborMask = masks[neighbor] & ~direction.getOpposite().getBit();
+					masks[neighbor] = (byte) neighborMask;
+					if (Integer.bitCount(neighborMask) == minEdgeCount - 1) {
+						queue[tail++] = neighbor;
+					}
+				}
+			}
+		}
+
+		public List<int[]> findSimpleLoops() {
+			List<int[]> loops = new ArrayList<>();
+			boolean[] visited = new boolean[masks.length];
+			int[] loop = new int[16];
+			for (int start = 0; start < masks.length; start++) {
+				if (masks[start] == 0 || visited[start]) {
+					continue;
+				}
+				int length = 0;
+				int previous = -1;
+				int current = start;
+				do {
+					int mask = masks[current];
+					if (Integer.bitCount(mask) != 2) {
+						throw new RuntimeException("Not a simple loop");
+					}
+					if (length == loop.length) {
+						loop = Arrays.copyOf(loop, length * 2);
+					}
+					loop[length++] = current;
+					visited[current] = true;
+
+					// walk on through whichever of the two edges we didn't come from
+					Direction direction = Direction.VALUES[Integer.numberOfTrailingZeros(mask)];
+					int next = getNeighbor(current, direction);
+					if (next == previous) {
+						direction = Direction.VALUES[31 - Integer.numberOfLeadingZeros(mask)];
+						next = getNeighbor(current, direction);
+					}
+					// with one-way edges left in the grid the walk could run into a loop it
+					// didn't start on and circle there forever
+					if ((masks[next] & direction.getOpposite().getBit()) == 0
+							|| (visited[next] && next != start)) {
+						throw new RuntimeException("Not a simple loop");
+					}
+					previous = current;
+					current = next;
+				} while (current != start);
+				loops.add(Arrays.copyOf(loop, length));
+			}
+			return loops;
+		}
+
+		private int getNeighbor(int index, Direction direction) {
+			return index + direction.getRowOffset() * width + direction.getColOffset();
+		}
+
+		public void render(Writer out, int fromRow, int fromCol, int rows, int cols) throws IOException {
+			checkViewport(fromRow, fromCol, rows, cols);
+			// same output as PipeNetwork.render, straight from the masks
+			int toRow = (int) Math.min((long) fromRow + rows - 1, height - 1);
+			int toCol = (int) Math.min((long) fromCol + cols - 1, width - 1);
+			char[] buffer = new char[Math.max(toCol - fromCol + 1, 0)];
+			int lastRow = fromRow - 1;
+			for (int row = fromRow; row <= toRow; row++) {
+				for (int col = 0; col < width; col++) {
+					int index = row * width + col;
+					if (masks[index] != 0 || index == startIndex) {
+						lastRow = row;
+						break;
+					}
+				}
+			}
+			for (int row = fromRow; row <= lastRow; row++) {
+				int length = 0;
+				for (int col = fromCol; col <= toCol; col++) {
+					int index = row * width + col;
+					char c = index == startIndex ? PipeSegment.START.getChar() : PipeSegment.fromMask(masks[index]).getChar();
+					buffer[col - fromCol] = c;
+					if (c != ' ') {
+						length = col - fromCol + 1;
+					}
+				}
+				out.write(buffer, 0, length);
+				out.write('\n');
+			}
+		}
+
+		public int getMask(int index) {
+			return masks[index];
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getStartIndex() {
+			return startIndex;
+		}
 	}
 
 	static record Node(Position position) {
@@ -457,6 +944,14 @@ public class Day10 {
 					.collect(Collectors.toCollection(() -> EnumSet.noneOf(Direction.class)));
 		}
 
+		public int getDirectionMask(Graph graph) {
+			int mask = 0;
+			for (Node node : graph.adjList.get(this)) {
+				mask |= Direction.getBitFromOffset(node.row() - row(), node.col() - col());
+			}
+			return mask;
+		}
+
 		public int row() {
 			return position.row();
 		}
@@ -1,16 +1,24 @@
-import java.util.Map;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Set;
+import java.util.Deque;
 import java.util.stream.Collector;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 enum ValidCharacters {
 	BROKEN('#'),
@@ -19,12 +27,24 @@ enum ValidCharacters {
 
 	final char symbol;
 
+	private static final ValidCharacters[] BY_SYMBOL = new ValidCharacters[128];
+
+	static {
+		for (ValidCharacters c : values()) {
+			BY_SYMBOL[c.symbol] = c;
+		}
+	}
+
 	ValidCharacters(char symbol) {
 		this.symbol = symbol;
 	}
 
 	static ValidCharacters from(int symbol) {
-		return Arrays.stream(values()).filter(c -> c.symbol == symbol).findFirst().orElseThrow();
+		ValidCharacters c = symbol >= 0 && symbol < BY_SYMBOL.length ? BY_SYMBOL[symbol] : null;
+		if (c == null) {
+			throw new NoSuchElementException("Invalid character: " + (char) symbol);
+		}
+		return c;
 	}
 
 	@Override
@@ -42,22 +62,22 @@ class Transition<T> {
 		this.nextState = nextState;
 	}
 
-	public boolean matches(List<T> input) {
+	public boolean matches(T symbol) {
 		if (match == null) {
 			return true;
 		}
-		if (input.isEmpty()) {
+		if (symbol == null) { // no input left
 			return false;
 		}
-		return input.get(0).equals(match);
+		return symbol.equals(match);
 	}
 
 	public boolean isEmptyMatching() {
 		return match == null;
 	}
 
-	public boolean matchesAny(Set<List<T>> inputs) {
-		return inputs.stream().anyMatch(this::matches);
+	public T getMatch() {
+		return match;
 	}
 
 	public State<T> nextState() {
@@ -74,12 +94,26 @@ class State<T> {
 	private final List<Transition<T>> transitions;
 	private boolean isAccepting;
 
-	private final Map<List<T>, Long> groups;
+	// counts[p] is the number of paths waiting in this state with the input from
+	// position p onwards still left to consume; the input itself is shared by the
+	// whole machine
+	private long[] counts;
+	private int inputLength;
+
+	// positions lowestPending..highestPending may still hold counts that can move on,
+	// pending is false once everything left is parked at the end of the input
+	private boolean pending;
+	private int lowestPending;
+	private int highestPending;
+	private boolean hasEmptyMatching;
+	private boolean queued;
 
 	public State(List<Transition<T>> transitions, boolean isAccepting) {
 		this.transitions = transitions;
 		this.isAccepting = isAccepting;
-		this.groups = new HashMap<>();
+		this.counts = new long[1];
+		this.hasEmptyMatching = transitions.stream().anyMatch(Transition::isEmptyMatching);
+		clearPending();
 	}
 
 	public State(boolean isAccepting) {
@@ -90,46 +124,86 @@ class State<T> {
 		this(false);
 	}
 
-	public boolean canTransitionAny() {
-		return transitions.stream().anyMatch(t -> t.matchesAny(groups.keySet()));
+	public void reset(int inputLength) {
+		if (counts.length < inputLength + 1) {
+			counts = new long[inputLength + 1];
+		} else {
+			Arrays.fill(counts, 0L);
+		}
+		this.inputLength = inputLength;
+		clearPending();
+	}
+
+	private void clearPending() {
+		pending = false;
+		lowestPending = Integer.MAX_VALUE;
+		highestPending = -1;
+	}
+
+	public boolean isPending() {
+		return pending;
+	}
+
+	boolean isQueued() {
+		return queued;
 	}
 
-	public void addGroup(List<T> group) {
-		addGroup(group, 1L);
+	void setQueued(boolean queued) {
+		this.queued = queued;
 	}
 
-	public void addGroup(List<T> group, long count) {
-		groups.put(group, groups.getOrDefault(group, 0L) + count);
+	public void addGroup(int position) {
+		addGroup(position, 1L);
 	}
 
-	public void transitionAll() {
-		for (var entry : groups.entrySet()) {
-			List<T> group = entry.getKey();
-			boolean isEmpty = group.isEmpty();
+	public void addGroup(int position, long count) {
+		counts[position] += count;
+		if (position < inputLength || hasEmptyMatching) {
+			pending = true;
+			lowestPending = Math.min(lowestPending, position);
+			highestPending = Math.max(highestPending, position);
+		}
+	}
+
+	public void transitionAll(List<T> input) {
+		if (!pending) {
+			return;
+		}
+		int from = lowestPending;
+		int to = highestPending;
+		clearPending();
+		// sweep from the back, so whatever a self loop moves forward isn't moved again
+		// in the same round
+		for (int position = to; position >= from; position--) {
+			long count = counts[position];
+			if (count == 0) {
+				continue;
+			}
+			T symbol = position < inputLength ? input.get(position) : null;
 			boolean transitioned = false;
-			List<T> groupWithoutFirst = isEmpty ? group : group.subList(1, group.size());
 			for (Transition<T> transition : transitions) {
-				if (transition.matches(group)) {
+				if (transition.matches(symbol)) {
 					transitioned = true;
 					if (transition.isEmptyMatching()) {
-						transition.nextState().addGroup(group, entry.getValue());
+						transition.nextState().addGroup(position, count);
 					} else {
-						transition.nextState().addGroup(groupWithoutFirst, entry.getValue());
+						transition.nextState().addGroup(position + 1, count);
 					}
 				}
 			}
-			if (transitioned || !isEmpty) {
-				groups.remove(group);
+			if (transitioned || position < inputLength) {
+				counts[position] = 0;
 			}
 		}
 	}
 
-	public long getFinalGroupsCount() {
-		return groups.keySet().stream().filter(g -> g.isEmpty()).mapToLong(groups::get).sum();
+	public long getFinalGroupsCount(int inputLength) {
+		return counts[inputLength];
 	}
 
 	public void clearGroups() {
-		groups.clear();
+		Arrays.fill(counts, 0L);
+		clearPending();
 	}
 
 	public boolean isAccepting() {
@@ -138,6 +212,11 @@ class State<T> {
 
 	public void addTransition(Transition<T> transition) {
 		transitions.add(transition);
+		hasEmptyMatching |= transition.isEmptyMatching();
+	}
+
+	public List<Transition<T>> getTransitions() {
+		return transitions;
 	}
 
 	public void setAccepting(boolean isAccepting) {
@@ -167,18 +246,44 @@ class StateMachine<T> {
 		this.states.add(starState);
 	}
 
+	private List<T> input = List.of();
+
+	public void load(List<T> input) {
+		this.input = input;
+		states.forEach(state -> state.reset(input.size()));
+	}
+
 	public boolean isFinal() {
-		return states.stream().allMatch(state -> !state.canTransitionAny());
+		return states.stream().noneMatch(State::isPending);
 	}
 
 	public void transitionUntilFinal() {
-		while (!isFinal()) {
-			states.forEach(State::transitionAll);
+		// only states that received something get visited, the machine is final as soon
+		// as nothing is left in the worklist
+		Deque<State<T>> worklist = new ArrayDeque<>();
+		for (State<T> state : states) {
+			enqueueIfPending(worklist, state);
+		}
+		while (!worklist.isEmpty()) {
+			State<T> state = worklist.poll();
+			state.setQueued(false);
+			state.transitionAll(input);
+			for (Transition<T> transition : state.getTransitions()) {
+				enqueueIfPending(worklist, transition.nextState());
+			}
+		}
+	}
+
+	private static <T> void enqueueIfPending(Deque<State<T>> worklist, State<T> state) {
+		if (state.isPending() && !state.isQueued()) {
+			state.setQueued(true);
+			worklist.add(state);
 		}
 	}
 
 	public long countAccepting() {
-		return states.stream().filter(State::isAccepting).mapToLong(State::getFinalGroupsCount).sum();
+		return states.stream().filter(State::isAccepting).mapToLong(state -> state.getFinalGroupsCount(input.size()))
+				.sum();
 	}
 
 	public void clearGroups() {
@@ -193,6 +298,46 @@ class StateMachine<T> {
 		return startState;
 	}
 
+	public CompiledStateMachine compile(ToIntFunction<T> symbolIndex, int alphabetSize) {
+		Map<State<T>, Integer> indices = new IdentityHashMap<>();
+		for (State<T> state : states) {
+			indices.putIfAbsent(state, indices.size());
+		}
+
+		// a state may have several transitions for the same symbol (this is an NFA), so
+		// every (state, symbol) cell gets room for the largest fan out
+		int fanOut = 1;
+		for (State<T> state : indices.keySet()) {
+			int[] perSymbol = new int[alphabetSize];
+			for (Transition<T> transition : state.getTransitions()) {
+				if (transition.isEmptyMatching()) {
+					throw new IllegalStateException("Empty matching transitions can't be compiled");
+				}
+				if (!indices.containsKey(transition.nextState())) {
+					throw new IllegalStateException("Transition to a state outside of the machine");
+				}
+				fanOut = Math.max(fanOut, ++perSymbol[symbolIndex.applyAsInt(transition.getMatch())]);
+			}
+		}
+
+		int[] table = new int[indices.size() * alphabetSize * fanOut];
+		Arrays.fill(table, -1);
+		boolean[] accepting = new boolean[indices.size()];
+		for (var entry : indices.entrySet()) {
+			int stateIndex = entry.getValue();
+			accepting[stateIndex] = entry.getKey().isAccepting();
+			for (Transition<T> transition : entry.getKey().getTransitions()) {
+				int cell = (stateIndex * alphabetSize + symbolIndex.applyAsInt(transition.getMatch())) * fanOut;
+				while (table[cell] != -1) {
+					cell++;
+				}
+				table[cell] = indices.get(transition.nextState());
+			}
+		}
+
+		return new CompiledStateMachine(table, accepting, indices.get(startState), alphabetSize, fanOut);
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -206,8 +351,122 @@ class StateMachine<T> {
 	}
 }
 
+class CompiledStateMachine {
+	// table[(state * alphabetSize + symbol) * fanOut + i] is the i-th next state of
+	// state for symbol, -1 marks unused slots
+	private final int[] table;
+	private final boolean[] accepting;
+	private final int startState;
+	private final int alphabetSize;
+	private final int fanOut;
+
+	public CompiledStateMachine(int[] table, boolean[] accepting, int startState, int alphabetSize, int fanOut) {
+		this.table = table;
+		this.accepting = accepting;
+		this.startState = startState;
+		this.alphabetSize = alphabetSize;
+		this.fanOut = fanOut;
+	}
+
+	public int getStateCount() {
+		return accepting.length;
+	}
+
+	public void start(long[] counts) {
+		Arrays.fill(counts, 0, getStateCount(), 0L);
+		counts[startState] = 1;
+	}
+
+	public void step(long[] from, long[] to, int symbol) {
+		int stateCount = getStateCount();
+		Arrays.fill(to, 0, stateCount, 0L);
+		for (int state = 0; state < stateCount; state++) {
+			long count = from[state];
+			if (count == 0) {
+				continue;
+			}
+			int cell = (state * alphabetSize + symbol) * fanOut;
+			for (int i = cell; i < cell + fanOut && table[i] != -1; i++) {
+				to[table[i]] += count;
+			}
+		}
+	}
+
+	public long countAccepting(long[] counts) {
+		long result = 0;
+		for (int state = 0; state < getStateCount(); state++) {
+			if (accepting[state]) {
+				result += counts[state];
+			}
+		}
+		return result;
+	}
+}
+
+class StreamingMatcher {
+	// push style counterpart of CombinationNumberFinder.getMatches: characters are fed
+	// as they arrive, memory stays at two count vectors however long the record gets
+	private final CompiledStateMachine machine;
+	private long[] current;
+	private long[] next;
+	private long length;
+
+	public StreamingMatcher(CompiledStateMachine machine) {
+		this.machine = machine;
+		this.current = new long[machine.getStateCount()];
+		this.next = new long[machine.getStateCount()];
+		reset();
+	}
+
+	public void reset() {
+		machine.start(current);
+		length = 0;
+	}
+
+	public void feed(ValidCharacters character) {
+		machine.step(current, next, character.ordinal());
+		long[] tmp = current;
+		current = next;
+		next = tmp;
+		length++;
+	}
+
+	public void feed(char character) {
+		feed(ValidCharacters.from(character));
+	}
+
+	public void feed(CharSequence characters) {
+		for (int i = 0; i < characters.length(); i++) {
+			feed(characters.charAt(i));
+		}
+	}
+
+	public void feed(CharBuffer characters) {
+		while (characters.hasRemaining()) {
+			feed(characters.get());
+		}
+	}
+
+	public void feed(ByteBuffer bytes) {
+		// the record alphabet is plain ASCII, so every byte is one character
+		while (bytes.hasRemaining()) {
+			feed(ValidCharacters.from(bytes.get() & 0xFF));
+		}
+	}
+
+	// number of arrangements if the record ended right here
+	public long getCount() {
+		return machine.countAccepting(current);
+	}
+
+	public long getLength() {
+		return length;
+	}
+}
+
 class CombinationNumberFinder {
 	StateMachine<ValidCharacters> machine;
+	CompiledStateMachine compiled;
 
 	private void addBroken(List<State<ValidCharacters>> states) {
 		states.add(new State<>());
@@ -256,6 +515,7 @@ class CombinationNumberFinder {
 
 		machine = new StateMachine<>(startState);
 		states.forEach(machine::addState);
+		compiled = machine.compile(ValidCharacters::ordinal, ValidCharacters.values().length);
 	}
 
 	public long getMatches(String input) {
@@ -263,7 +523,33 @@ class CombinationNumberFinder {
 	}
 
 	public long getMatches(Collection<ValidCharacters> input) {
-		machine.getStartState().addGroup(new ArrayList<>(input));
+		return getMatches(input, new long[compiled.getStateCount()], new long[compiled.getStateCount()]);
+	}
+
+	// current and next are scratch space, both need room for getStateCount() entries
+	public long getMatches(Collection<ValidCharacters> input, long[] current, long[] next) {
+		compiled.start(current);
+		for (ValidCharacters character : input) {
+			compiled.step(current, next, character.ordinal());
+			long[] tmp = current;
+			current = next;
+			next = tmp;
+		}
+		return compiled.countAccepting(current);
+	}
+
+	public int getStateCount() {
+		return compiled.getStateCount();
+	}
+
+	public StreamingMatcher matcher() {
+		return new StreamingMatcher(compiled);
+	}
+
+	// not thread safe, the linked states hold the counts of the input being matched
+	public long getMatchesUncompiled(Collection<ValidCharacters> input) {
+		machine.load(input instanceof List<ValidCharacters> list ? list : new ArrayList<>(input));
+		machine.getStartState().addGroup(0);
 		machine.transitionUntilFinal();
 		long result = machine.countAccepting();
 		machine.clearGroups();
@@ -271,7 +557,469 @@ class CombinationNumberFinder {
 	}
 }
 
+class FinderCache {
+	// finders only depend on the group sizes and keep no state between inputs, so
+	// one finder can serve every record with the same groups
+	private final int maxSize;
+	private final LinkedHashMap<List<Long>, CombinationNumberFinder> finders;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public FinderCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be greater than 0");
+		}
+		this.maxSize = maxSize;
+		this.finders = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Long>, CombinationNumberFinder> eldest) {
+				if (size() > FinderCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public CombinationNumberFinder get(List<Long> numbers) {
+		synchronized (this) {
+			CombinationNumberFinder finder = finders.get(numbers);
+			if (finder != null) {
+				hits++;
+				return finder;
+			}
+			misses++;
+		}
+		// build outside of the lock, if two threads race the first one to finish wins
+		List<Long> key = List.copyOf(numbers);
+		CombinationNumberFinder finder = new CombinationNumberFinder(key);
+		synchronized (this) {
+			CombinationNumberFinder existing = finders.putIfAbsent(key, finder);
+			return existing != null ? existing : finder;
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int size() {
+		return finders.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FinderCache(size: " + finders.size() + ", hits: " + hits + ", misses: " + misses + ", evictions: "
+				+ evictions + ")";
+	}
+}
+
+class UnfoldedCombinationCounter {
+	// One copy of the groups is a cycle. Unfolding repeats the same cycle, so a state
+	// of the unfolded automaton is (local state, cycles completed). A transfer matrix
+	// maps local states to local states and its entries are polynomials: the
+	// coefficient of x^d counts the paths that complete d cycles on the way. Copies
+	// are then composed by squaring instead of being written out.
+	private static final int SYMBOLS = ValidCharacters.values().length;
+
+	private final int stateCount;
+	private final int lastState;
+	// [state * SYMBOLS + symbol] -> target * 2, + 1 if the transition completes a cycle
+	private final int[][] targets;
+
+	public UnfoldedCombinationCounter(List<Long> numbers) {
+		if (numbers.isEmpty()) {
+			throw new IllegalArgumentException("numbers must not be empty");
+		}
+
+		// state 0 is the gap in front of the first group, which is also the gap between
+		// two cycles
+		List<List<Integer>> edges = new ArrayList<>();
+		int gap = addState(edges);
+		int last = -1;
+		for (int i = 0; i < numbers.size(); i++) {
+			if (numbers.get(i) < 1) {
+				throw new IllegalArgumentException("groups must be at least 1 long");
+			}
+			addEdge(edges, gap, ValidCharacters.FUNCTIONAL, gap, false);
+			addEdge(edges, gap, ValidCharacters.UNKNOWN, gap, false);
+			int previous = gap;
+			for (long j = 0; j < numbers.get(i); j++) {
+				int broken = addState(edges);
+				addEdge(edges, previous, ValidCharacters.BROKEN, broken, false);
+				addEdge(edges, previous, ValidCharacters.UNKNOWN, broken, false);
+				previous = broken;
+			}
+			last = previous;
+			boolean lastGroup = i == numbers.size() - 1;
+			gap = lastGroup ? 0 : addState(edges);
+			addEdge(edges, last, ValidCharacters.FUNCTIONAL, gap, lastGroup);
+			addEdge(edges, last, ValidCharacters.UNKNOWN, gap, lastGroup);
+		}
+
+		stateCount = edges.size() / SYMBOLS;
+		lastState = last;
+		targets = new int[edges.size()][];
+		for (int i = 0; i < edges.size(); i++) {
+			targets[i] = edges.get(i).stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	private static int addState(List<List<Integer>> edges) {
+		int state = edges.size() / SYMBOLS;
+		for (int i = 0; i < SYMBOLS; i++) {
+			edges.add(new ArrayList<>());
+		}
+		return state;
+	}
+
+	private static void addEdge(List<List<Integer>> edges, int from, ValidCharacters symbol, int to,
+			boolean completesCycle) {
+		edges.get(from * SYMBOLS + symbol.ordinal()).add(to * 2 + (completesCycle ? 1 : 0));
+	}
+
+	// counts like the record unfolded copies times, i.e. the characters joined by
+	// UNKNOWN and the groups repeated; throws an ArithmeticException instead of
+	// returning a wrapped count when a path count doesn't fit into a long
+	public long count(List<ValidCharacters> characters, int copies) {
+		Transfer transfer = new Transfer(characters, copies);
+		Poly[][] vector = raise(transfer, copies);
+		return Math.addExact(Poly.get(vector[0][lastState], copies - 1), Poly.get(vector[0][0], copies));
+	}
+
+	// same count without an upper bound: the long path is tried first, and only if one
+	// of its coefficients overflows is the whole product redone on BigIntegers
+	public BigInteger countExact(List<ValidCharacters> characters, int copies) {
+		Transfer transfer = new Transfer(characters, copies);
+		try {
+			Poly[][] vector = raise(transfer, copies);
+			return BigInteger.valueOf(
+					Math.addExact(Poly.get(vector[0][lastState], copies - 1), Poly.get(vector[0][0], copies)));
+		} catch (ArithmeticException e) {
+			BigPoly[][] vector = raiseStepwise(transfer, copies);
+			return BigPoly.get(vector[0][lastState], copies - 1).add(BigPoly.get(vector[0][0], copies));
+		}
+	}
+
+	private final class Transfer {
+		final BigPoly[][] unitMatrix;
+		final BigPoly[][] lastMatrix;
+		final long unitMax;
+		final long lastMax;
+
+		Transfer(List<ValidCharacters> characters, int copies) {
+			if (copies < 1) {
+				throw new IllegalArgumentException("copies must be greater than 0");
+			}
+			List<ValidCharacters> unit = new ArrayList<>(characters);
+			unit.add(ValidCharacters.UNKNOWN);
+			unitMatrix = transfer(unit, copies);
+			lastMatrix = transfer(characters, copies);
+			unitMax = getMaxDegree(unitMatrix);
+			lastMax = getMaxDegree(lastMatrix);
+		}
+	}
+
+	private Poly[][] raise(Transfer transfer, int copies) {
+		Poly[][] unitMatrix = toLong(transfer.unitMatrix);
+		Poly[][] lastMatrix = toLong(transfer.lastMatrix);
+		Poly[][] vector = new Poly[1][stateCount];
+		vector[0][0] = Poly.one();
+
+		// accepted are all paths that end behind the last group of cycle copies - 1,
+		// right on it or in the gap after it
+		int needed = copies - 1;
+
+		int remaining = copies - 1;
+		int done = 0;
+		int blockSize = 1;
+		Poly[][] block = unitMatrix;
+		while (remaining > 0) {
+			if ((remaining & 1) != 0) {
+				done += blockSize;
+				// whatever can't reach needed cycles with the copies that are left is dropped
+				vector = multiply(vector, block,
+						getLowestUseful(needed, copies - 1 - done, transfer.unitMax, transfer.lastMax), copies);
+			}
+			remaining >>= 1;
+			if (remaining > 0) {
+				blockSize *= 2;
+				block = multiply(block, block,
+						getLowestUseful(needed, copies - 1 - blockSize, transfer.unitMax, transfer.lastMax), copies);
+			}
+		}
+		return multiply(vector, lastMatrix, needed, copies);
+	}
+
+	private BigPoly[][] raiseStepwise(Transfer transfer, int copies) {
+		// counts this large come from loose records whose polynomials fill the whole band,
+		// where squaring costs states^3 * copies^2 per step; adding one copy at a time only
+		// multiplies the vector with the short unit polynomials
+		BigPoly[][] vector = new BigPoly[1][stateCount];
+		vector[0][0] = BigPoly.one();
+		int needed = copies - 1;
+		for (int done = 1; done < copies; done++) {
+			vector = multiply(vector, transfer.unitMatrix,
+					getLowestUseful(needed, copies - 1 - done, transfer.unitMax, transfer.lastMax), copies);
+		}
+		return multiply(vector, transfer.lastMatrix, needed, copies);
+	}
+
+	private static int getLowestUseful(int needed, long unitsLeft, long unitMax, long lastMax) {
+		return (int) Math.max(0, needed - unitsLeft * unitMax - lastMax);
+	}
+
+	private BigPoly[][] transfer(List<ValidCharacters> word, int maxDegree) {
+		// a single copy is cheap next to the products, so it is always counted exactly
+		int length = word.size();
+		BigPoly[][] matrix = new BigPoly[stateCount][];
+		BigInteger[][] current = new BigInteger[stateCount][length + 1];
+		BigInteger[][] next = new BigInteger[stateCount][length + 1];
+		for (int start = 0; start < stateCount; start++) {
+			for (BigInteger[] row : current) {
+				Arrays.fill(row, BigInteger.ZERO);
+			}
+			current[start][0] = BigInteger.ONE;
+			for (int step = 0; step < length; step++) {
+				int symbol = word.get(step).ordinal();
+				for (BigInteger[] row : next) {
+					Arrays.fill(row, BigInteger.ZERO);
+				}
+				for (int state = 0; state < stateCount; state++) {
+					for (int degree = 0; degree <= step; degree++) {
+						BigInteger count = current[state][degree];
+						if (count.signum() == 0) {
+							continue;
+						}
+						for (int target : targets[state * SYMBOLS + symbol]) {
+							next[target >> 1][degree + (target & 1)] = next[target >> 1][degree + (target & 1)]
+									.add(count);
+						}
+					}
+				}
+				BigInteger[][] tmp = current;
+				current = next;
+				next = tmp;
+			}
+			matrix[start] = new BigPoly[stateCount];
+			for (int state = 0; state < stateCount; state++) {
+				matrix[start][state] = BigPoly.of(current[state], 0, 0, Math.min(length, maxDegree));
+			}
+		}
+		return matrix;
+	}
+
+	private static Poly[][] toLong(BigPoly[][] matrix) {
+		Poly[][] result = new Poly[matrix.length][];
+		for (int row = 0; row < matrix.length; row++) {
+			result[row] = new Poly[matrix[row].length];
+			for (int column = 0; column < matrix[row].length; column++) {
+				BigPoly poly = matrix[row][column];
+				if (poly == null) {
+					continue;
+				}
+				long[] coefficients = new long[poly.coefficients.length];
+				for (int i = 0; i < coefficients.length; i++) {
+					coefficients[i] = poly.coefficients[i].longValueExact();
+				}
+				result[row][column] = new Poly(poly.low, coefficients);
+			}
+		}
+		return result;
+	}
+
+	private static Poly[][] multiply(Poly[][] a, Poly[][] b, int lowDegree, int highDegree) {
+		int rows = a.length;
+		int inner = b.length;
+		int columns = b[0].length;
+		Poly[][] result = new Poly[rows][columns];
+		long[] sum = new long[highDegree - lowDegree + 1];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				Arrays.fill(sum, 0L);
+				boolean any = false;
+				for (int k = 0; k < inner; k++) {
+					Poly left = a[row][k];
+					Poly right = b[k][column];
+					if (left == null || right == null) {
+						continue;
+					}
+					for (int i = 0; i < left.coefficients.length; i++) {
+						long coefficient = left.coefficients[i];
+						if (coefficient == 0) {
+							continue;
+						}
+						int base = left.low + i + right.low;
+						int from = Math.max(0, lowDegree - base);
+						int to = Math.min(right.coefficients.length - 1, highDegree - base);
+						for (int j = from; j <= to; j++) {
+							sum[base + j - lowDegree] = Math.addExact(sum[base + j - lowDegree],
+									Math.multiplyExact(coefficient, right.coefficients[j]));
+							any = true;
+						}
+					}
+				}
+				result[row][column] = any ? Poly.of(sum, lowDegree, lowDegree, highDegree) : null;
+			}
+		}
+		return result;
+	}
+
+	private static BigPoly[][] multiply(BigPoly[][] a, BigPoly[][] b, int lowDegree, int highDegree) {
+		int rows = a.length;
+		int inner = b.length;
+		int columns = b[0].length;
+		BigPoly[][] result = new BigPoly[rows][columns];
+		BigInteger[] sum = new BigInteger[highDegree - lowDegree + 1];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				Arrays.fill(sum, BigInteger.ZERO);
+				boolean any = false;
+				for (int k = 0; k < inner; k++) {
+					BigPoly left = a[row][k];
+					BigPoly right = b[k][column];
+					if (left == null || right == null) {
+						continue;
+					}
+					for (int i = 0; i < left.coefficients.length; i++) {
+						BigInteger coefficient = left.coefficients[i];
+						if (coefficient.signum() == 0) {
+							continue;
+						}
+						int base = left.low + i + right.low;
+						int from = Math.max(0, lowDegree - base);
+						int to = Math.min(right.coefficients.length - 1, highDegree - base);
+						for (int j = from; j <= to; j++) {
+							sum[base + j - lowDegree] = sum[base + j - lowDegree]
+									.add(coefficient.multiply(right.coefficients[j]));
+							any = true;
+						}
+					}
+				}
+				result[row][column] = any ? BigPoly.of(sum, lowDegree, lowDegree, highDegree) : null;
+			}
+		}
+		return result;
+	}
+
+	private static long getMaxDegree(BigPoly[][] matrix) {
+		int max = 0;
+		for (BigPoly[] row : matrix) {
+			for (BigPoly poly : row) {
+				if (poly != null) {
+					max = Math.max(max, poly.low + poly.coefficients.length - 1);
+				}
+			}
+		}
+		return max;
+	}
+
+	private static final class BigPoly {
+		// Poly with BigInteger coefficients
+		final int low;
+		final BigInteger[] coefficients;
+
+		private BigPoly(int low, BigInteger[] coefficients) {
+			this.low = low;
+			this.coefficients = coefficients;
+		}
+
+		static BigPoly one() {
+			return new BigPoly(0, new BigInteger[] { BigInteger.ONE });
+		}
+
+		static BigPoly of(BigInteger[] dense, int denseLow, int from, int to) {
+			while (from <= to && dense[from - denseLow].signum() == 0) {
+				from++;
+			}
+			while (to >= from && dense[to - denseLow].signum() == 0) {
+				to--;
+			}
+			if (from > to) {
+				return null;
+			}
+			return new BigPoly(from, Arrays.copyOfRange(dense, from - denseLow, to - denseLow + 1));
+		}
+
+		static BigInteger get(BigPoly poly, int degree) {
+			if (poly == null || degree < poly.low || degree >= poly.low + poly.coefficients.length) {
+				return BigInteger.ZERO;
+			}
+			return poly.coefficients[degree - poly.low];
+		}
+	}
+
+	private static final class Poly {
+		// coefficients[i] belongs to x^(low + i), zero polynomials are stored as null
+		final int low;
+		final long[] coefficients;
+
+		private Poly(int low, long[] coefficients) {
+			this.low = low;
+			this.coefficients = coefficients;
+		}
+
+		static Poly one() {
+			return new Poly(0, new long[] { 1 });
+		}
+
+		static Poly of(long[] dense, int denseLow, int from, int to) {
+			while (from <= to && dense[from - denseLow] == 0) {
+				from++;
+			}
+			while (to >= from && dense[to - denseLow] == 0) {
+				to--;
+			}
+			if (from > to) {
+				return null;
+			}
+			return new Poly(from, Arrays.copyOfRange(dense, from - denseLow, to - denseLow + 1));
+		}
+
+		static long get(Poly poly, int degree) {
+			if (poly == null || degree < poly.low || degree >= poly.low + poly.coefficients.length) {
+				return 0;
+			}
+			return poly.coefficients[degree - poly.low];
+		}
+	}
+}
+
+class RecordWorker {
+	// one per thread: count vectors that only ever grow, the finders themselves come
+	// from the shared cache
+	private static final ThreadLocal<RecordWorker> WORKERS = ThreadLocal.withInitial(RecordWorker::new);
+
+	private long[] current = new long[0];
+	private long[] next = new long[0];
+
+	public static RecordWorker get() {
+		return WORKERS.get();
+	}
+
+	public long count(CombinationNumberFinder finder, Collection<ValidCharacters> characters) {
+		if (current.length < finder.getStateCount()) {
+			current = new long[finder.getStateCount()];
+			next = new long[finder.getStateCount()];
+		}
+		return finder.getMatches(characters, current, next);
+	}
+}
+
 public class Day12 {
+	static final FinderCache FINDERS = new FinderCache(1024);
+
 	public static void main(String[] args) {
 		String pathToData = Paths.get("AOC2023", "12", "DATA.txt").toAbsolutePath().normalize().toString();
 
@@ -285,10 +1033,10 @@ public class Day12 {
 
 		List<FunctionRecord> records = lines.stream().map(FunctionRecord::from).toList();
 
-		long task1 = records.stream().mapToLong(Day12::getPossibleCombinationCount).sum();
+		long task1 = getPossibleCombinationCountSumParallel(records, 1);
 		System.out.println("Task 1: " + task1);
 
-		long task2 = records.stream().mapToLong(r -> getPossibleCombinationCount(r.multiplyEntries(5))).sum();
+		long task2 = getPossibleCombinationCountSumParallel(records, 5);
 		System.out.println("Task 2: " + task2);
 	}
 
@@ -318,6 +1066,16 @@ public class Day12 {
 			return new FunctionRecord(newCharacters, newNumbers);
 		}
 
+		public long countUnfolded(int count) {
+			// same result as multiplyEntries(count), without building the unfolded lists
+			return new UnfoldedCombinationCounter(numbers).count(characters, count);
+		}
+
+		public BigInteger countUnfoldedExact(int count) {
+			// for fold factors whose counts don't fit into a long
+			return new UnfoldedCombinationCounter(numbers).countExact(characters, count);
+		}
+
 		@Override
 		public String toString() {
 			return characters.stream().map(ValidCharacters::toString).collect(Collectors.joining())
@@ -326,8 +1084,24 @@ public class Day12 {
 		}
 	}
 
+	public static long getPossibleCombinationCountSum(List<FunctionRecord> records, int unfold) {
+		return sum(records.stream(), unfold);
+	}
+
+	public static long getPossibleCombinationCountSumParallel(List<FunctionRecord> records, int unfold) {
+		// the sum is a plain stream reduction, so it splits across the common pool
+		return sum(records.parallelStream(), unfold);
+	}
+
+	private static long sum(Stream<FunctionRecord> records, int unfold) {
+		// every thread counts with its own RecordWorker, the finders are shared through FINDERS
+		return records.mapToLong(record -> {
+			FunctionRecord unfolded = record.multiplyEntries(unfold);
+			return RecordWorker.get().count(FINDERS.get(unfolded.numbers()), unfolded.characters());
+		}).sum();
+	}
+
 	public static long getPossibleCombinationCount(FunctionRecord record) {
-		CombinationNumberFinder finder = new CombinationNumberFinder(record.numbers());
-		return finder.getMatches(record.characters());
+		return FINDERS.get(record.numbers()).getMatches(record.characters());
 	}
 }
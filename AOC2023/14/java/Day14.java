@@ -1,9 +1,12 @@
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 enum RockType {
@@ -156,6 +159,147 @@ record Grid(ArrayList<ArrayList<RockType>> tiles) {
 	}
 }
 
+class FlatGrid {
+	// RockType ordinals, index = y * width + x
+	private static final byte STATIC_ROCK = (byte) RockType.STATIC_ROCK.ordinal();
+	private static final byte DYNAMIC_ROCK = (byte) RockType.DYNAMIC_ROCK.ordinal();
+	private static final byte EMPTY = (byte) RockType.EMPTY.ordinal();
+
+	private final byte[] cells;
+	private final int width;
+	private final int height;
+
+	public FlatGrid(byte[] cells, int width, int height) {
+		if (cells.length != width * height) {
+			throw new IllegalArgumentException("Expected " + width * height + " cells, got " + cells.length);
+		}
+		this.cells = cells;
+		this.width = width;
+		this.height = height;
+	}
+
+	public static FlatGrid from(List<String> lines) {
+		int width = lines.get(0).length();
+		byte[] cells = new byte[width * lines.size()];
+		for (int y = 0; y < lines.size(); y++) {
+			String line = lines.get(y);
+			if (line.length() != width) {
+				throw new IllegalArgumentException("Line " + y + " has length " + line.length() + ", expected " + width);
+			}
+			for (int x = 0; x < width; x++) {
+				cells[y * width + x] = (byte) RockType.from(line.charAt(x)).ordinal();
+			}
+		}
+		return new FlatGrid(cells, width, lines.size());
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public RockType getRockType(int x, int y) {
+		return RockType.values()[cells[y * width + x]];
+	}
+
+	public void tilt(Direction dir) {
+		// every line along dir is compacted once, starting from the side rocks roll towards
+		switch (dir) {
+			case NORTH -> {
+				for (int x = 0; x < width; x++) {
+					compact(x, width, height);
+				}
+			}
+			case SOUTH -> {
+				for (int x = 0; x < width; x++) {
+					compact((height - 1) * width + x, -width, height);
+				}
+			}
+			case WEST -> {
+				for (int y = 0; y < height; y++) {
+					compact(y * width, 1, width);
+				}
+			}
+			case EAST -> {
+				for (int y = 0; y < height; y++) {
+					compact(y * width + width - 1, -1, width);
+				}
+			}
+		}
+	}
+
+	private void compact(int start, int step, int length) {
+		// next free slot for a rolling rock; a static rock moves it just past itself
+		int free = start;
+		for (int i = 0, index = start; i < length; i++, index += step) {
+			byte cell = cells[index];
+			if (cell == STATIC_ROCK) {
+				free = index + step;
+			} else if (cell == DYNAMIC_ROCK) {
+				cells[index] = EMPTY;
+				cells[free] = DYNAMIC_ROCK;
+				free += step;
+			}
+		}
+	}
+
+	public void cycle() {
+		for (Direction dir : Direction.values()) {
+			tilt(dir);
+		}
+	}
+
+	public void cycle(long count) {
+		// remember every state we've seen; once one repeats, the rest of the cycles
+		// just go around the loop, so jump straight to where they'd end
+		Map<ByteBuffer, Integer> seen = new HashMap<>();
+		List<byte[]> history = new ArrayList<>();
+		history.add(cells.clone());
+		seen.put(ByteBuffer.wrap(history.get(0)), 0);
+		for (long i = 1; i <= count; i++) {
+			cycle();
+			byte[] state = cells.clone();
+			Integer index = seen.putIfAbsent(ByteBuffer.wrap(state), history.size());
+			if (index != null) {
+				long loopSize = i - index;
+				byte[] last = history.get((int) (index + (count - i) % loopSize));
+				System.arraycopy(last, 0, cells, 0, cells.length);
+				return;
+			}
+			history.add(state);
+		}
+	}
+
+	public long getScore() {
+		long score = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (cells[y * width + x] == DYNAMIC_ROCK) {
+					score += height - y;
+				}
+			}
+		}
+		return score;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(height * (width + 1));
+		for (int y = 0; y < height; y++) {
+			if (y > 0) {
+				sb.append('\n');
+			}
+			for (int x = 0; x < width; x++) {
+				sb.append(getRockType(x, y));
+			}
+		}
+		return sb.toString();
+	}
+}
+
 public class Day14 {
 	public static void main(String[] args) {
 		String pathToData = Paths.get("AOC2023", "14", "DATA.txt").toAbsolutePath().normalize().toString();
@@ -168,7 +312,7 @@ public class Day14 {
 			throw new RuntimeException(e);
 		}
 
-		Grid grid = Grid.from(lines);
+		FlatGrid grid = FlatGrid.from(lines);
 
 		grid.tilt(Direction.NORTH);
 
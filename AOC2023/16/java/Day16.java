@@ -1,4 +1,6 @@
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Map;
@@ -8,6 +10,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.stream.IntStream;
 
 enum Type {
 	EMPTY('.', Map.of()),
@@ -118,34 +121,628 @@ class Beam {
 	}
 }
 
+class BeamTracer {
+	// outputs of every (type, incoming direction) pair as a mask of direction ordinals,
+	// indexed by type.ordinal() * 4 + direction.ordinal()
+	private static final MirrorDirection[] DIRECTIONS = MirrorDirection.values();
+	private static final byte[] OUTPUTS = new byte[Type.values().length * DIRECTIONS.length];
+
+	static {
+		for (Type type : Type.values()) {
+			for (MirrorDirection d : DIRECTIONS) {
+				int mask = 0;
+				for (MirrorDirection output : type.getMirrorsOutputs(d)) {
+					mask |= 1 << output.ordinal();
+				}
+				OUTPUTS[type.ordinal() * DIRECTIONS.length + d.ordinal()] = (byte) mask;
+			}
+		}
+	}
+
+	private final byte[] types; // type ordinals, index = y * width + x; may be shared between tracers
+	private final int width;
+	private final int height;
+	private final byte[] visited; // directions each cell has already sent a beam in
+	private final int[] queue; // ring buffer of (cell << 2 | direction)
+	private final int queueMask;
+	private int energised;
+
+	public BeamTracer(MirrorGrid grid) {
+		this(grid.getCells(), grid.getWidth(), grid.getHeight());
+	}
+
+	public BeamTracer(byte[] types, int width, int height) {
+		this.types = types;
+		this.width = width;
+		this.height = height;
+		visited = new byte[types.length];
+		// a cell can only be entered from a given direction once, so 4 * cells + 1 entries are enough
+		queue = new int[Integer.highestOneBit(types.length * 4) << 1];
+		queueMask = queue.length - 1;
+	}
+
+	public static int getOutputs(int type, int direction) {
+		return OUTPUTS[type * DIRECTIONS.length + direction];
+	}
+
+	public int trace(int x, int y, MirrorDirection direction) {
+		Arrays.fill(visited, (byte) 0);
+		energised = 0;
+
+		int head = 0;
+		int tail = 0;
+		queue[tail++ & queueMask] = (y * width + x) << 2 | direction.ordinal();
+		while (head != tail) {
+			int beam = queue[head++ & queueMask];
+			int cell = beam >>> 2;
+			int outputs = OUTPUTS[types[cell] * DIRECTIONS.length + (beam & 3)] & ~visited[cell];
+			if (outputs == 0) {
+				continue;
+			}
+			if (visited[cell] == 0) {
+				energised++;
+			}
+			visited[cell] |= outputs;
+
+			int cellX = cell % width;
+			int cellY = cell / width;
+			for (int d = 0; d < DIRECTIONS.length; d++) {
+				if ((outputs & 1 << d) == 0) {
+					continue;
+				}
+				int newX = cellX + DIRECTIONS[d].getX();
+				int newY = cellY + DIRECTIONS[d].getY();
+				if (newX < 0 || newX >= width || newY < 0 || newY >= height) {
+					continue;
+				}
+				queue[tail++ & queueMask] = (newY * width + newX) << 2 | d;
+			}
+		}
+		return energised;
+	}
+
+	public int getEnergisedCount() {
+		return energised;
+	}
+
+	public boolean isEnergised(int x, int y) {
+		return visited[y * width + x] != 0;
+	}
+}
+
+class BeamSegmentGraph {
+	// Every (cell << 2 | direction) beam state belongs to exactly one run: a straight chain of
+	// states that only branches at its last state (a splitter, the grid edge or a join).
+	// Runs are condensed into strongly connected components, whose energised cells are
+	// memoised as bitsets and built from their successors' sets in reverse topological order.
+	private final byte[] types;
+	private final int width;
+	private final int height;
+	private final int[] runByState;
+	private final int[] runOffsets; // runStates[runOffsets[r]..runOffsets[r + 1]) are the states of run r
+	private final int[] runStates;
+	private final int runCount;
+	private final int[] componentByRun; // components are numbered sinks first
+	private final int[] componentOffsets; // componentRuns[componentOffsets[c]..componentOffsets[c + 1])
+	private final int[] componentRuns;
+	private final BitSet[] energy;
+	// scratch space for getEnergy, reused so a query only pays for the components it builds
+	private final int[] pendingMarks;
+	private final int[] pending;
+	private final int[] stack;
+	private final int[] runSuccessors = new int[2];
+	private int epoch;
+
+	public BeamSegmentGraph(MirrorGrid grid) {
+		this(grid.getCells(), grid.getWidth(), grid.getHeight());
+	}
+
+	public BeamSegmentGraph(byte[] types, int width, int height) {
+		this.types = types;
+		this.width = width;
+		this.height = height;
+		int stateCount = types.length * 4;
+		int[] successors = new int[2];
+
+		int[] inDegree = new int[stateCount];
+		boolean[] isHead = new boolean[stateCount];
+		for (int state = 0; state < stateCount; state++) {
+			int count = getSuccessors(state, successors);
+			for (int i = 0; i < count; i++) {
+				inDegree[successors[i]]++;
+				if (count > 1) {
+					isHead[successors[i]] = true;
+				}
+			}
+		}
+		for (int state = 0; state < stateCount; state++) {
+			if (inDegree[state] != 1) {
+				isHead[state] = true;
+			}
+		}
+
+		runByState = new int[stateCount];
+		Arrays.fill(runByState, -1);
+		runStates = new int[stateCount];
+		int[] offsets = new int[stateCount + 1];
+		int runs = 0;
+		int length = 0;
+		// heads first; whatever is left over lies on closed loops without a way in
+		for (int pass = 0; pass < 2; pass++) {
+			for (int state = 0; state < stateCount; state++) {
+				if (runByState[state] != -1 || (pass == 0 && !isHead[state])) {
+					continue;
+				}
+				offsets[runs] = length;
+				int current = state;
+				while (true) {
+					runByState[current] = runs;
+					runStates[length++] = current;
+					if (getSuccessors(current, successors) != 1
+							|| isHead[successors[0]] || runByState[successors[0]] != -1) {
+						break;
+					}
+					current = successors[0];
+				}
+				runs++;
+			}
+		}
+		offsets[runs] = length;
+		runCount = runs;
+		runOffsets = Arrays.copyOf(offsets, runs + 1);
+
+		componentByRun = new int[runCount];
+		componentRuns = new int[runCount];
+		componentOffsets = findComponents();
+		energy = new BitSet[componentOffsets.length - 1];
+		pendingMarks = new int[energy.length];
+		pending = new int[energy.length];
+		stack = new int[energy.length];
+	}
+
+	private int getSuccessors(int state, int[] successors) {
+		int cell = state >>> 2;
+		int outputs = BeamTracer.getOutputs(types[cell], state & 3);
+		int x = cell % width;
+		int y = cell / width;
+		int count = 0;
+		for (MirrorDirection d : MirrorDirection.values()) {
+			if ((outputs & 1 << d.ordinal()) == 0) {
+				continue;
+			}
+			int newX = x + d.getX();
+			int newY = y + d.getY();
+			if (newX < 0 || newX >= width || newY < 0 || newY >= height) {
+				continue;
+			}
+			successors[count++] = (newY * width + newX) << 2 | d.ordinal();
+		}
+		return count;
+	}
+
+	private int getRunSuccessors(int run, int[] successors) {
+		int count = getSuccessors(runStates[runOffsets[run + 1] - 1], successors);
+		for (int i = 0; i < count; i++) {
+			successors[i] = runByState[successors[i]];
+		}
+		return count;
+	}
+
+	// iterative Tarjan over the run graph; fills componentByRun/componentRuns and returns the offsets
+	private int[] findComponents() {
+		int[] index = new int[runCount];
+		int[] low = new int[runCount];
+		boolean[] onStack = new boolean[runCount];
+		int[] stack = new int[runCount];
+		int[] callStack = new int[runCount];
+		int[] nextEdge = new int[runCount];
+		int[][] edges = new int[runCount][];
+		int[] successors = new int[2];
+		Arrays.fill(index, -1);
+		int[] offsets = new int[runCount + 1];
+		int nextIndex = 0;
+		int stackSize = 0;
+		int components = 0;
+		int componentLength = 0;
+
+		for (int root = 0; root < runCount; root++) {
+			if (index[root] != -1) {
+				continue;
+			}
+			int depth = 0;
+			callStack[depth++] = root;
+			while (depth > 0) {
+				int run = callStack[depth - 1];
+				if (index[run] == -1) {
+					index[run] = low[run] = nextIndex++;
+					stack[stackSize++] = run;
+					onStack[run] = true;
+					edges[run] = Arrays.copyOf(successors, getRunSuccessors(run, successors));
+				}
+				if (nextEdge[run] < edges[run].length) {
+					int next = edges[run][nextEdge[run]++];
+					if (index[next] == -1) {
+						callStack[depth++] = next;
+					} else if (onStack[next]) {
+						low[run] = Math.min(low[run], index[next]);
+					}
+					continue;
+				}
+
+				depth--;
+				if (depth > 0) {
+					int parent = callStack[depth - 1];
+					low[parent] = Math.min(low[parent], low[run]);
+				}
+				if (low[run] == index[run]) {
+					offsets[components] = componentLength;
+					int member;
+					do {
+						member = stack[--stackSize];
+						onStack[member] = false;
+						componentByRun[member] = components;
+						componentRuns[componentLength++] = member;
+					} while (member != run);
+					components++;
+				}
+			}
+		}
+		offsets[components] = componentLength;
+		return Arrays.copyOf(offsets, components + 1);
+	}
+
+	public int getRunCount() {
+		return runCount;
+	}
+
+	public int getComponentCount() {
+		return energy.length;
+	}
+
+	public BitSet getEnergisedCells(int x, int y, MirrorDirection direction) {
+		// a copy, the memoised sets are shared by every component that reaches them
+		return (BitSet) getEnergy(getComponent(x, y, direction)).clone();
+	}
+
+	public int getEnergisedCount(int x, int y, MirrorDirection direction) {
+		return getEnergy(getComponent(x, y, direction)).cardinality();
+	}
+
+	private int getComponent(int x, int y, MirrorDirection direction) {
+		int state = (y * width + x) << 2 | direction.ordinal();
+		int run = runByState[state];
+		if (runStates[runOffsets[run]] != state) {
+			throw new IllegalArgumentException("Beam does not start a run: " + x + "," + y + " " + direction);
+		}
+		return componentByRun[run];
+	}
+
+	private BitSet getEnergy(int component) {
+		if (energy[component] != null) {
+			return energy[component];
+		}
+
+		// collect every component reachable from here that has no set yet ...
+		epoch++;
+		int[] successors = runSuccessors;
+		int pendingCount = 0;
+		int stackSize = 0;
+		pendingMarks[component] = epoch;
+		stack[stackSize++] = component;
+		while (stackSize > 0) {
+			int current = stack[--stackSize];
+			pending[pendingCount++] = current;
+			for (int i = componentOffsets[current]; i < componentOffsets[current + 1]; i++) {
+				int count = getRunSuccessors(componentRuns[i], successors);
+				for (int j = 0; j < count; j++) {
+					int next = componentByRun[successors[j]];
+					if (pendingMarks[next] != epoch && energy[next] == null) {
+						pendingMarks[next] = epoch;
+						stack[stackSize++] = next;
+					}
+				}
+			}
+		}
+
+		// ... and build them sinks first (lowest number first), so successors are always ready
+		Arrays.sort(pending, 0, pendingCount);
+		for (int p = 0; p < pendingCount; p++) {
+			int current = pending[p];
+			BitSet cells = new BitSet(types.length);
+			for (int i = componentOffsets[current]; i < componentOffsets[current + 1]; i++) {
+				int run = componentRuns[i];
+				for (int j = runOffsets[run]; j < runOffsets[run + 1]; j++) {
+					cells.set(runStates[j] >>> 2);
+				}
+				int count = getRunSuccessors(run, successors);
+				for (int j = 0; j < count; j++) {
+					int next = componentByRun[successors[j]];
+					if (next != current) {
+						cells.or(energy[next]);
+					}
+				}
+			}
+			energy[current] = cells;
+		}
+		return energy[component];
+	}
+}
+
+class EditableMirrorGrid {
+	// The energised set of a single entry beam, kept up to date as tiles are edited.
+	// The beam is cut into runs: the states followed from a head state until the beam splits,
+	// leaves the grid or comes back to the head. A run only depends on its head and on the
+	// tiles it crosses, so an edit only drops the runs crossing that tile; reachability is
+	// then recomputed over the (much smaller) run graph, retracing the missing runs, and
+	// per-cell coverage counts are adjusted for the runs that became (un)reachable.
+	private static final class Run {
+		final int[] states;
+		final int[] successors; // head states of the runs this one feeds
+		boolean reachable;
+		int mark;
+
+		Run(int[] states, int[] successors) {
+			this.states = states;
+			this.successors = successors;
+		}
+	}
+
+	private final byte[] types;
+	private final int width;
+	private final int height;
+	private final int entryState;
+	private final Run[] runByHead; // cached runs, null when not traced yet or invalidated
+	private final List<List<Run>> runsByCell;
+	private final int[] coverage; // states of reachable runs per cell
+	private int energised;
+	private List<Run> reachableRuns = new ArrayList<>();
+	private List<Run> nextReachableRuns = new ArrayList<>();
+	private final ArrayDeque<Run> queue = new ArrayDeque<>();
+	private int epoch;
+	private int[] stateBuffer = new int[16];
+	private final int[] successorBuffer = new int[2];
+
+	public EditableMirrorGrid(MirrorGrid grid) {
+		this(grid, 0, 0, MirrorDirection.EAST);
+	}
+
+	public EditableMirrorGrid(MirrorGrid grid, int x, int y, MirrorDirection direction) {
+		types = grid.getCells().clone();
+		width = grid.getWidth();
+		height = grid.getHeight();
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IllegalArgumentException("Entry outside of grid: " + x + "," + y);
+		}
+		entryState = (y * width + x) << 2 | direction.ordinal();
+		runByHead = new Run[types.length * 4];
+		runsByCell = new ArrayList<>(types.length);
+		for (int i = 0; i < types.length; i++) {
+			runsByCell.add(new ArrayList<>(1));
+		}
+		coverage = new int[types.length];
+		updateReachability();
+	}
+
+	public Type getType(int x, int y) {
+		checkBounds(x, y);
+		return Type.values()[types[y * width + x]];
+	}
+
+	public void setType(int x, int y, Type type) {
+		checkBounds(x, y);
+		int cell = y * width + x;
+		if (types[cell] == type.ordinal()) {
+			return;
+		}
+		types[cell] = (byte) type.ordinal();
+
+		for (Run run : new ArrayList<>(runsByCell.get(cell))) {
+			if (run.reachable) {
+				run.reachable = false;
+				addCoverage(run, -1);
+			}
+			for (int state : run.states) {
+				runsByCell.get(state >>> 2).remove(run);
+			}
+			runByHead[run.states[0]] = null;
+		}
+		updateReachability();
+	}
+
+	public int getEnergisedCount() {
+		return energised;
+	}
+
+	public boolean isEnergised(int x, int y) {
+		checkBounds(x, y);
+		return coverage[y * width + x] > 0;
+	}
+
+	private void checkBounds(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IllegalArgumentException("Tile outside of grid: " + x + "," + y);
+		}
+	}
+
+	byte[] getCells() {
+		return types;
+	}
+
+	private void updateReachability() {
+		epoch++;
+		nextReachableRuns.clear();
+		Run entry = getRun(entryState);
+		entry.mark = epoch;
+		queue.add(entry);
+		while (!queue.isEmpty()) {
+			Run run = queue.poll();
+			nextReachableRuns.add(run);
+			if (!run.reachable) {
+				run.reachable = true;
+				addCoverage(run, 1);
+			}
+			for (int head : run.successors) {
+				Run next = getRun(head);
+				if (next.mark != epoch) {
+					next.mark = epoch;
+					queue.add(next);
+				}
+			}
+		}
+
+		for (Run run : reachableRuns) {
+			if (run.reachable && run.mark != epoch) {
+				run.reachable = false;
+				addCoverage(run, -1);
+			}
+		}
+		List<Run> swap = reachableRuns;
+		reachableRuns = nextReachableRuns;
+		nextReachableRuns = swap;
+	}
+
+	private void addCoverage(Run run, int delta) {
+		for (int state : run.states) {
+			int cell = state >>> 2;
+			if (delta > 0) {
+				if (coverage[cell]++ == 0) {
+					energised++;
+				}
+			} else if (--coverage[cell] == 0) {
+				energised--;
+			}
+		}
+	}
+
+	private Run getRun(int head) {
+		Run run = runByHead[head];
+		if (run == null) {
+			run = trace(head);
+			runByHead[head] = run;
+			for (int state : run.states) {
+				runsByCell.get(state >>> 2).add(run);
+			}
+		}
+		return run;
+	}
+
+	private Run trace(int head) {
+		int length = 0;
+		int state = head;
+		while (true) {
+			if (length == stateBuffer.length) {
+				stateBuffer = Arrays.copyOf(stateBuffer, length * 2);
+			}
+			stateBuffer[length++] = state;
+
+			int cell = state >>> 2;
+			int outputs = BeamTracer.getOutputs(types[cell], state & 3);
+			int count = 0;
+			for (MirrorDirection d : MirrorDirection.values()) {
+				if ((outputs & 1 << d.ordinal()) == 0) {
+					continue;
+				}
+				int newX = cell % width + d.getX();
+				int newY = cell / width + d.getY();
+				if (newX >= 0 && newX < width && newY >= 0 && newY < height) {
+					successorBuffer[count++] = (newY * width + newX) << 2 | d.ordinal();
+				}
+			}
+
+			if (count == 1 && Integer.bitCount(outputs) == 1) {
+				// single-output steps never merge, so the only state we can come back to is the head
+				if (successorBuffer[0] != head) {
+					state = successorBuffer[0];
+					continue;
+				}
+				count = 0;
+			}
+			return new Run(Arrays.copyOf(stateBuffer, length), Arrays.copyOf(successorBuffer, count));
+		}
+	}
+}
+
 class MirrorGrid {
 	Type[][] types;
+	private final byte[] cells; // type ordinals, index = y * width + x
+	private final int width;
+	private final int height;
 
 	public MirrorGrid(List<String> lines) {
 		types = new Type[lines.get(0).length()][lines.size()];
+		width = lines.get(0).length();
+		height = lines.size();
+		cells = new byte[width * height];
 		for (int y = 0; y < lines.size(); y++) {
 			for (int x = 0; x < lines.get(y).length(); x++) {
 				types[x][y] = Type.fromChar(lines.get(y).charAt(x));
+				cells[y * width + x] = (byte) types[x][y].ordinal();
 			}
 		}
 	}
 
+	public byte[] getCells() {
+		return cells;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
 	public long getTask1Answer() {
-		return calculateTraversedCount(types, new Beam(0, 0, MirrorDirection.EAST));
+		return new BeamTracer(this).trace(0, 0, MirrorDirection.EAST);
 	}
 
 	public long getTask2Answer() {
-		List<Beam> toCalculate = new ArrayList<>();
+		return getBestEntry().energised();
+	}
+
+	record BestEntry(int x, int y, MirrorDirection direction, int energised) {
+	}
+
+	public List<Beam> getEntryBeams() {
+		List<Beam> entries = new ArrayList<>();
 		for (int x = 0; x < types.length; x++) {
-			toCalculate.add(new Beam(x, 0, MirrorDirection.SOUTH));
-			toCalculate.add(new Beam(x, types[0].length - 1, MirrorDirection.NORTH));
+			entries.add(new Beam(x, 0, MirrorDirection.SOUTH));
+			entries.add(new Beam(x, types[0].length - 1, MirrorDirection.NORTH));
 		}
 		for (int y = 0; y < types[0].length; y++) {
-			toCalculate.add(new Beam(0, y, MirrorDirection.EAST));
-			toCalculate.add(new Beam(types.length - 1, y, MirrorDirection.WEST));
+			entries.add(new Beam(0, y, MirrorDirection.EAST));
+			entries.add(new Beam(types.length - 1, y, MirrorDirection.WEST));
 		}
+		return entries;
+	}
+
+	public BestEntry getBestEntry() {
+		List<Beam> entries = getEntryBeams();
+		// one tracer per worker thread, all sharing the cells array; trace() clears the visited buffer
+		ThreadLocal<BeamTracer> tracers = ThreadLocal.withInitial(() -> new BeamTracer(cells, width, height));
 
-		return toCalculate.stream().mapToLong(b -> calculateTraversedCount(types, b)).max().orElseThrow();
+		// (count << 32 | ~index) so that the max is the best count and, on ties, the first entry
+		long best = IntStream.range(0, entries.size()).parallel().mapToLong(i -> {
+			Beam entry = entries.get(i);
+			long count = tracers.get().trace(entry.x, entry.y, entry.direction);
+			return count << 32 | (~i & 0xFFFFFFFFL);
+		}).max().orElseThrow();
+
+		Beam entry = entries.get(~(int) best);
+		return new BestEntry(entry.x, entry.y, entry.direction, (int) (best >>> 32));
+	}
+
+	public BestEntry getBestEntryShared() {
+		BeamSegmentGraph graph = new BeamSegmentGraph(this);
+		BestEntry best = null;
+		for (Beam entry : getEntryBeams()) {
+			int count = graph.getEnergisedCount(entry.x, entry.y, entry.direction);
+			if (best == null || count > best.energised()) {
+				best = new BestEntry(entry.x, entry.y, entry.direction, count);
+			}
+		}
+		return best;
 	}
 
 	public long calculateTraversedCount(Type[][] types, Beam start) {